@@ -1,5 +1,11 @@
 package com.example.watermanagementsystem;
 
+import com.example.watermanagementsystem.controllers.DatabaseHandler;
+import com.example.watermanagementsystem.utils.ColumnarUsageStore;
+import com.example.watermanagementsystem.utils.NotificationCounters;
+import com.example.watermanagementsystem.utils.ReminderScheduler;
+import com.example.watermanagementsystem.utils.SupplyForecaster;
+import com.example.watermanagementsystem.utils.TopKTracker;
 import com.example.watermanagementsystem.utils.UIManager;
 import javafx.application.Application;
 import javafx.geometry.Rectangle2D;
@@ -17,6 +23,16 @@ public class MainApplication extends Application {
         UIManager.setPrimaryStage(stage);
         stage.initStyle(StageStyle.DECORATED);
 
+        // Leaderboards and the supply forecast are restored once, then kept current by approvals
+        TopKTracker.getInstance();
+        SupplyForecaster.getInstance();
+        // The approved-usage columns load on a background thread; analytics reads the rollups meanwhile
+        ColumnarUsageStore.getInstance();
+        // Badge counts are loaded before the reminder thread starts adding notifications
+        NotificationCounters.getInstance();
+        // Payment reminders run on their own thread from here on
+        ReminderScheduler.getInstance();
+
         // Preload all scenes
         UIManager.preloadScene("Welcome.fxml");
         UIManager.preloadScene("Login.fxml");
@@ -47,4 +63,11 @@ public class MainApplication extends Application {
 
         stage.show();
     }
+
+    @Override
+    public void stop() {
+        ReminderScheduler.shutdown();
+        SupplyForecaster.shutdown();
+        DatabaseHandler.shutdown();
+    }
 }
@@ -1,15 +1,23 @@
 package com.example.watermanagementsystem.controllers;
 
 import com.example.watermanagementsystem.models.Notification;
+import com.example.watermanagementsystem.models.NotificationCounts;
 import com.example.watermanagementsystem.models.Request;
+import com.example.watermanagementsystem.models.SupplyLevelPoint;
 import com.example.watermanagementsystem.models.User;
+import com.example.watermanagementsystem.utils.NotificationCounters;
 import com.example.watermanagementsystem.utils.NotificationService;
+import com.example.watermanagementsystem.utils.SupplyForecaster;
 import com.example.watermanagementsystem.utils.UIManager;
 import de.jensd.fx.glyphs.fontawesome.FontAwesomeIconView;
+import javafx.application.Platform;
 import javafx.fxml.FXML;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
 import javafx.scene.Scene;
+import javafx.scene.chart.LineChart;
+import javafx.scene.chart.NumberAxis;
+import javafx.scene.chart.XYChart;
 import javafx.scene.control.*;
 import javafx.scene.layout.FlowPane;
 import javafx.scene.layout.HBox;
@@ -20,8 +28,10 @@ import javafx.stage.Modality;
 import javafx.stage.Stage;
 import javafx.stage.StageStyle;
 import javafx.event.ActionEvent;
+import javafx.util.StringConverter;
 
 import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
@@ -34,6 +44,10 @@ public class AdminController {
     @FXML private Label supplyLevelLabel;
     @FXML private TextField newSupplyField;
     @FXML private Label supplyMessageLabel;
+    @FXML private Label supplyForecastLabel;
+    @FXML private ComboBox<String> supplyHistoryRangeCombo;
+    @FXML private LineChart<Number, Number> supplyHistoryChart;
+    @FXML private NumberAxis supplyHistoryTimeAxis;
 
     @FXML private FlowPane requestCardsPane;
     @FXML private ComboBox<String> searchCriteriaCombo;
@@ -51,6 +65,8 @@ public class AdminController {
     private VBox selectedCard;
     private List<Request> allRequests;
     private Map<String, List<Request>> groupedRequests;
+    // Subscribed while this dashboard is shown; dropped when navigation replaces it
+    private NotificationCounters.Listener countsListener;
     private final DateTimeFormatter dtFormatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
 
     @FXML
@@ -64,6 +80,30 @@ public class AdminController {
                 searchCriteriaCombo.getItems().addAll("ID", "Username", "Status", "Volume");
                 searchCriteriaCombo.setValue("ID");
             }
+
+            if (supplyHistoryRangeCombo != null) {
+                supplyHistoryRangeCombo.getItems().addAll("Last 24 Hours", "Last 7 Days", "Last 30 Days", "Last Year");
+                supplyHistoryRangeCombo.setValue("Last 7 Days");
+            }
+
+            // Admin notifications (target 0) can change on any thread, e.g. the reminder scheduler
+            countsListener = (targetUserId, counts) -> {
+                if (targetUserId == 0) {
+                    Platform.runLater(this::updateNotificationBadge);
+                }
+            };
+            // Navigation swaps the scene root and shows this view again from the UIManager cache;
+            // only listen while attached
+            if (welcomeLabel != null) {
+                welcomeLabel.sceneProperty().addListener((obs, oldScene, newScene) -> {
+                    if (newScene == null) {
+                        NotificationCounters.getInstance().removeListener(countsListener);
+                    } else if (oldScene == null) {
+                        NotificationCounters.getInstance().addListener(countsListener);
+                        updateNotificationBadge();
+                    }
+                });
+            }
         } catch (Exception e) {
             System.err.println("Error in AdminController.initialize(): " + e.getMessage());
             e.printStackTrace();
@@ -80,8 +120,7 @@ public class AdminController {
             loadRequests();
             updateSupplyDisplay();
 
-            // Check for payment due reminders and update notification badge
-            NotificationService.generatePaymentReminders();
+            // Reminders are generated by the background scheduler; just show the badge
             updateNotificationBadge();
         } catch (Exception e) {
             System.err.println("Error in AdminController.setAdmin(): " + e.getMessage());
@@ -321,7 +360,6 @@ public class AdminController {
                         request.getId(), "Approved", request.getVolume());
                     loadRequests();
                     updateSupplyDisplay();
-                    updateNotificationBadge();
                     supplyMessageLabel.setText("Request " + request.getId() + " approved.");
                     popup.close();
                 } else {
@@ -342,7 +380,6 @@ public class AdminController {
                     NotificationService.notifyUserRequestStatusChange(request.getUserId(),
                         request.getId(), "Rejected", request.getVolume());
                     loadRequests();
-                    updateNotificationBadge();
                     supplyMessageLabel.setText("Request " + request.getId() + " rejected.");
                     popup.close();
                 } else {
@@ -456,11 +493,90 @@ public class AdminController {
             if (supplyLevelLabel != null) {
                 supplyLevelLabel.setText(String.format("%.1f L", level));
             }
+            updateForecastDisplay(level);
+            loadSupplyHistory();
         } catch (Exception e) {
             System.err.println("Error updating supply display: " + e.getMessage());
         }
     }
 
+    @FXML
+    private void handleSupplyHistoryRange() {
+        loadSupplyHistory();
+    }
+
+    // The database picks raw, hourly or daily points for the range, so the chart stays small at any zoom
+    private void loadSupplyHistory() {
+        if (supplyHistoryChart == null || supplyHistoryRangeCombo == null) {
+            return;
+        }
+        LocalDateTime to = LocalDateTime.now().plusMinutes(1);
+        LocalDateTime from;
+        DateTimeFormatter tickFormat;
+        switch (supplyHistoryRangeCombo.getValue() != null ? supplyHistoryRangeCombo.getValue() : "") {
+            case "Last 24 Hours":
+                from = to.minusDays(1);
+                tickFormat = DateTimeFormatter.ofPattern("HH:mm");
+                break;
+            case "Last 30 Days":
+                from = to.minusDays(30);
+                tickFormat = DateTimeFormatter.ofPattern("MM-dd");
+                break;
+            case "Last Year":
+                from = to.minusYears(1);
+                tickFormat = DateTimeFormatter.ofPattern("yyyy-MM");
+                break;
+            default:
+                from = to.minusDays(7);
+                tickFormat = DateTimeFormatter.ofPattern("MM-dd HH:mm");
+                break;
+        }
+
+        XYChart.Series<Number, Number> series = new XYChart.Series<>();
+        for (SupplyLevelPoint point : DatabaseHandler.getSupplyHistory(from, to)) {
+            series.getData().add(new XYChart.Data<>(toEpochMinute(point.getTime()), point.getLevel()));
+        }
+        supplyHistoryChart.getData().setAll(List.of(series));
+
+        supplyHistoryTimeAxis.setLowerBound(toEpochMinute(from));
+        supplyHistoryTimeAxis.setUpperBound(toEpochMinute(to));
+        supplyHistoryTimeAxis.setTickUnit((toEpochMinute(to) - toEpochMinute(from)) / 6.0);
+        supplyHistoryTimeAxis.setTickLabelFormatter(new StringConverter<Number>() {
+            @Override
+            public String toString(Number minute) {
+                return LocalDateTime.ofEpochSecond(minute.longValue() * 60, 0, ZoneOffset.UTC).format(tickFormat);
+            }
+
+            @Override
+            public Number fromString(String text) {
+                return 0;
+            }
+        });
+    }
+
+    private static long toEpochMinute(LocalDateTime time) {
+        return time.toEpochSecond(ZoneOffset.UTC) / 60;
+    }
+
+    private void updateForecastDisplay(double level) {
+        if (supplyForecastLabel == null) {
+            return;
+        }
+        SupplyForecaster.Forecast forecast = SupplyForecaster.getInstance().evaluate(level);
+        supplyForecastLabel.setText(forecast.describe());
+        switch (forecast.getAlertLevel()) {
+            case "URGENT":
+                supplyForecastLabel.setStyle("-fx-text-fill: #dc3545; -fx-font-weight: bold;");
+                break;
+            case "HIGH":
+                supplyForecastLabel.setStyle("-fx-text-fill: #fd7e14;");
+                break;
+            default:
+                supplyForecastLabel.setStyle("-fx-text-fill: #b0b0b0;");
+                break;
+        }
+    }
+
     private void updateButtonStates(Request selected) {
         if (selected != null && selected.getStatus().equals("Pending")) {
             approveButton.setDisable(false);
@@ -573,6 +689,8 @@ public class AdminController {
             boolean ok = DatabaseHandler.updateSupplyLevel(v);
             if (ok) {
                 supplyLevelLabel.setText(String.format("%.1f L", v));
+                updateForecastDisplay(v);
+                loadSupplyHistory();
                 supplyMessageLabel.setText("Supply updated to " + String.format("%.1f", v) + " L.");
                 newSupplyField.clear();
             } else {
@@ -612,7 +730,6 @@ public class AdminController {
                     sel.getId(), "Approved", sel.getVolume());
                 loadRequests();
                 updateSupplyDisplay();
-                updateNotificationBadge();
                 supplyMessageLabel.setText("Request " + sel.getId() + " approved. Supply deducted by " + sel.getVolume() + " L.");
             } else {
                 supplyMessageLabel.setText("Cannot approve: insufficient water supply. Required: " + sel.getVolume() + " L.");
@@ -646,7 +763,6 @@ public class AdminController {
                 NotificationService.notifyUserRequestStatusChange(sel.getUserId(),
                     sel.getId(), "Rejected", sel.getVolume());
                 loadRequests();
-                updateNotificationBadge();
                 supplyMessageLabel.setText("Request " + sel.getId() + " rejected.");
             } else {
                 supplyMessageLabel.setText("Failed to reject request.");
@@ -682,7 +798,7 @@ public class AdminController {
 
     private void updateNotificationBadge() {
         try {
-            int unreadCount = DatabaseHandler.getUnreadNotificationCount();
+            int unreadCount = NotificationCounters.getInstance().getCounts(0).getUnread();
             if (notificationBadge != null) {
                 if (unreadCount > 0) {
                     notificationBadge.setText(String.valueOf(unreadCount > 99 ? "99+" : unreadCount));
@@ -731,8 +847,7 @@ public class AdminController {
         Button markAllReadBtn = new Button("Mark All Read");
         markAllReadBtn.setStyle("-fx-background-color: #6c757d; -fx-text-fill: white; -fx-padding: 5 10; -fx-font-size: 11; -fx-cursor: hand;");
         markAllReadBtn.setOnAction(e -> {
-            DatabaseHandler.markAllNotificationsAsRead();
-            updateNotificationBadge();
+            DatabaseHandler.markAllNotificationsAsRead(0);
             popup.close();
             showNotificationsPopup();
         });
@@ -740,8 +855,7 @@ public class AdminController {
         Button clearAllBtn = new Button("Clear All");
         clearAllBtn.setStyle("-fx-background-color: #dc3545; -fx-text-fill: white; -fx-padding: 5 10; -fx-font-size: 11; -fx-cursor: hand;");
         clearAllBtn.setOnAction(e -> {
-            DatabaseHandler.clearAllNotifications();
-            updateNotificationBadge();
+            DatabaseHandler.clearNotifications(0);
             popup.close();
             showNotificationsPopup();
         });
@@ -749,8 +863,9 @@ public class AdminController {
         header.getChildren().addAll(bellIcon, titleLabel, spacer, markAllReadBtn, clearAllBtn);
 
         // Summary
-        int unreadCount = DatabaseHandler.getUnreadNotificationCount();
-        int urgentCount = NotificationService.getUrgentNotificationCount();
+        NotificationCounts counts = NotificationCounters.getInstance().getCounts(0);
+        int unreadCount = counts.getUnread();
+        int urgentCount = counts.getUrgent();
         String summaryText = unreadCount + " unread notification" + (unreadCount != 1 ? "s" : "");
         if (urgentCount > 0) {
             summaryText += " (" + urgentCount + " urgent)";
@@ -853,7 +968,6 @@ public class AdminController {
         markReadBtn.setDisable(notification.isRead());
         markReadBtn.setOnAction(e -> {
             DatabaseHandler.markNotificationAsRead(notification.getId());
-            updateNotificationBadge();
             popup.close();
             showNotificationsPopup();
         });
@@ -862,7 +976,6 @@ public class AdminController {
         deleteBtn.setStyle("-fx-background-color: #dc3545; -fx-text-fill: white; -fx-padding: 3 8; -fx-font-size: 10; -fx-cursor: hand;");
         deleteBtn.setOnAction(e -> {
             DatabaseHandler.deleteNotification(notification.getId());
-            updateNotificationBadge();
             popup.close();
             showNotificationsPopup();
         });
@@ -1,15 +1,20 @@
 package com.example.watermanagementsystem.controllers;
 
+import com.example.watermanagementsystem.utils.ColumnarUsageStore;
+import com.example.watermanagementsystem.utils.TopKTracker;
 import com.example.watermanagementsystem.utils.UIManager;
 import javafx.fxml.FXML;
+import javafx.scene.control.ComboBox;
 import javafx.scene.control.Label;
 
 import java.time.LocalDate;
-import java.util.Collections;
 import java.util.List;
-import java.util.Map;
-import java.util.stream.Collectors;
-import com.example.watermanagementsystem.models.Request;
+import java.util.function.Function;
+import com.example.watermanagementsystem.models.UsageTotals;
+import com.example.watermanagementsystem.models.UserUsage;
+import com.example.watermanagementsystem.models.VolumeStats;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.VBox;
 
 public class AnalyticsController {
 
@@ -31,17 +36,85 @@ public class AnalyticsController {
     @FXML
     private Label yearlyUsageLabel;
 
+    @FXML
+    private Label dailyP50Label;
+
+    @FXML
+    private Label dailyP95Label;
+
+    @FXML
+    private Label dailyP99Label;
+
+    @FXML
+    private Label dailyDistinctUsersLabel;
+
+    @FXML
+    private Label monthlyP50Label;
+
+    @FXML
+    private Label monthlyP95Label;
+
+    @FXML
+    private Label monthlyP99Label;
+
+    @FXML
+    private Label monthlyDistinctUsersLabel;
+
     @FXML
     private Label mostActiveUserLabel;
 
     @FXML
     private Label topWaterConsumerLabel;
 
+    @FXML
+    private VBox topByCountBox;
+
+    @FXML
+    private VBox topByVolumeBox;
+
+    @FXML
+    private ComboBox<String> leaderboardPeriodCombo;
+
+    private static final int LEADERBOARD_SIZE = 10;
+    private static final String ALL_TIME = "All Time";
+
     @FXML
     public void initialize() {
+        leaderboardPeriodCombo.getItems().addAll("Today", "This Week", "This Month", "This Year", ALL_TIME);
+        leaderboardPeriodCombo.setValue(ALL_TIME);
         loadAnalytics();
     }
 
+    @FXML
+    private void handleLeaderboardPeriod() {
+        fillLeaderboard(topByVolumeBox, getTopConsumers(), u -> String.format("%.2f L", u.getVolume()));
+    }
+
+    // Calendar periods come from the running top-K tracker; all time is a scan of the usage store
+    private List<UserUsage> getTopConsumers() {
+        String selected = leaderboardPeriodCombo.getValue();
+        if (selected == null || ALL_TIME.equals(selected)) {
+            return getTopUsersByVolume();
+        }
+        TopKTracker.Period period;
+        switch (selected) {
+            case "Today":
+                period = TopKTracker.Period.DAY;
+                break;
+            case "This Week":
+                period = TopKTracker.Period.WEEK;
+                break;
+            case "This Month":
+                period = TopKTracker.Period.MONTH;
+                break;
+            default:
+                period = TopKTracker.Period.YEAR;
+                break;
+        }
+        List<UserUsage> top = TopKTracker.getInstance().getTopConsumers(period);
+        return top.size() > LEADERBOARD_SIZE ? top.subList(0, LEADERBOARD_SIZE) : top;
+    }
+
     @FXML
     private void handleBack() {
         UIManager.changeScene("AdminDashboard.fxml", "Admin Dashboard");
@@ -53,66 +126,93 @@ public class AnalyticsController {
     }
 
     private void loadAnalytics() {
-        List<Request> approvedRequests = DatabaseHandler.getApprovedRequests();
-
-        double totalSupplied = 0;
-        int totalApproved = 0;
-        double dailyUsage = 0;
-        double weeklyUsage = 0;
-        double monthlyUsage = 0;
-        double yearlyUsage = 0;
+        // Scanned from the in-memory usage columns, which follow approvals as they happen;
+        // until they finish loading in the background the daily_usage rollup answers instead
+        ColumnarUsageStore store = ColumnarUsageStore.getInstance();
+        UsageTotals totals = store.isLoaded() ? store.getUsageTotals(LocalDate.now())
+                : DatabaseHandler.getUsageTotals(LocalDate.now());
+
+        totalSuppliedLabel.setText(String.format("%.2f L", totals.getTotalVolume()));
+        totalApprovedLabel.setText(String.valueOf(totals.getApprovedCount()));
+        dailyUsageLabel.setText(String.format("%.2f L", totals.getDailyVolume()));
+        weeklyUsageLabel.setText(String.format("%.2f L", totals.getWeeklyVolume()));
+        monthlyUsageLabel.setText(String.format("%.2f L", totals.getMonthlyVolume()));
+        yearlyUsageLabel.setText(String.format("%.2f L", totals.getYearlyVolume()));
+
+        updateVolumeDistribution();
+        updateUserActivity();
+    }
 
+    // Percentiles and distinct users are merged from per-day sketches, so the cost does not grow with history
+    private void updateVolumeDistribution() {
         LocalDate today = LocalDate.now();
+        LocalDate monthStart = today.withDayOfMonth(1);
+        showVolumeStats(DatabaseHandler.getVolumeStats(today, today.plusDays(1)),
+                dailyP50Label, dailyP95Label, dailyP99Label, dailyDistinctUsersLabel);
+        showVolumeStats(DatabaseHandler.getVolumeStats(monthStart, monthStart.plusMonths(1)),
+                monthlyP50Label, monthlyP95Label, monthlyP99Label, monthlyDistinctUsersLabel);
+    }
 
-        for (Request request : approvedRequests) {
-            totalSupplied += request.getVolume();
-            totalApproved++;
-
-            LocalDate requestDate = request.getDate().toLocalDate();
-
-            if (requestDate.equals(today)) {
-                dailyUsage += request.getVolume();
-            }
-            if (requestDate.isAfter(today.minusWeeks(1))) {
-                weeklyUsage += request.getVolume();
-            }
-            if (requestDate.getMonth() == today.getMonth() && requestDate.getYear() == today.getYear()) {
-                monthlyUsage += request.getVolume();
-            }
-            if (requestDate.getYear() == today.getYear()) {
-                yearlyUsage += request.getVolume();
-            }
+    private void showVolumeStats(VolumeStats stats, Label p50, Label p95, Label p99, Label distinctUsers) {
+        if (stats == null || stats.getRequestCount() == 0) {
+            p50.setText("N/A");
+            p95.setText("N/A");
+            p99.setText("N/A");
+            distinctUsers.setText("0");
+            return;
         }
+        p50.setText(String.format("%.1f L", stats.getP50()));
+        p95.setText(String.format("%.1f L", stats.getP95()));
+        p99.setText(String.format("%.1f L", stats.getP99()));
+        distinctUsers.setText("~" + stats.getDistinctUsers());
+    }
 
-        totalSuppliedLabel.setText(String.format("%.2f L", totalSupplied));
-        totalApprovedLabel.setText(String.valueOf(totalApproved));
-        dailyUsageLabel.setText(String.format("%.2f L", dailyUsage));
-        weeklyUsageLabel.setText(String.format("%.2f L", weeklyUsage));
-        monthlyUsageLabel.setText(String.format("%.2f L", monthlyUsage));
-        yearlyUsageLabel.setText(String.format("%.2f L", yearlyUsage));
+    private List<UserUsage> getTopUsersByVolume() {
+        ColumnarUsageStore store = ColumnarUsageStore.getInstance();
+        return store.isLoaded() ? store.getTopUsersByVolume(LEADERBOARD_SIZE, null)
+                : DatabaseHandler.getTopUsersByVolume(LEADERBOARD_SIZE, null);
+    }
 
-        updateUserActivity();
+    private List<UserUsage> getTopUsersByRequestCount() {
+        ColumnarUsageStore store = ColumnarUsageStore.getInstance();
+        return store.isLoaded() ? store.getTopUsersByRequestCount(LEADERBOARD_SIZE, null)
+                : DatabaseHandler.getTopUsersByRequestCount(LEADERBOARD_SIZE, null);
     }
 
     private void updateUserActivity() {
-        List<Request> approvedRequests = DatabaseHandler.getApprovedRequestsWithUserDetails();
+        List<UserUsage> topByCount = getTopUsersByRequestCount();
+        List<UserUsage> topByVolume = getTopUsersByVolume();
+        List<UserUsage> topConsumers = ALL_TIME.equals(leaderboardPeriodCombo.getValue()) ? topByVolume : getTopConsumers();
 
-        if (approvedRequests.isEmpty()) {
+        if (topByCount.isEmpty() || topByVolume.isEmpty()) {
             mostActiveUserLabel.setText("N/A");
             topWaterConsumerLabel.setText("N/A");
-            return;
+        } else {
+            UserUsage topConsumer = topByVolume.get(0);
+            mostActiveUserLabel.setText(topByCount.get(0).getUsername());
+            topWaterConsumerLabel.setText(String.format("%s (%.2f L)", topConsumer.getUsername(), topConsumer.getVolume()));
         }
 
-        Map<String, Long> userRequestCounts = approvedRequests.stream()
-                .collect(Collectors.groupingBy(Request::getUsername, Collectors.counting()));
-
-        Map<String, Double> userWaterConsumption = approvedRequests.stream()
-                .collect(Collectors.groupingBy(Request::getUsername, Collectors.summingDouble(Request::getVolume)));
-
-        String mostActiveUser = Collections.max(userRequestCounts.entrySet(), Map.Entry.comparingByValue()).getKey();
-        String topWaterConsumer = Collections.max(userWaterConsumption.entrySet(), Map.Entry.comparingByValue()).getKey();
+        fillLeaderboard(topByCountBox, topByCount, u -> u.getRequestCount() + " requests");
+        fillLeaderboard(topByVolumeBox, topConsumers, u -> String.format("%.2f L", u.getVolume()));
+    }
 
-        mostActiveUserLabel.setText(mostActiveUser);
-        topWaterConsumerLabel.setText(String.format("%s (%.2f L)", topWaterConsumer, userWaterConsumption.get(topWaterConsumer)));
+    private void fillLeaderboard(VBox box, List<UserUsage> users, Function<UserUsage, String> value) {
+        box.getChildren().clear();
+        if (users.isEmpty()) {
+            Label empty = new Label("No approved requests yet");
+            empty.setStyle("-fx-text-fill: #888888;");
+            box.getChildren().add(empty);
+            return;
+        }
+        for (int i = 0; i < users.size(); i++) {
+            UserUsage user = users.get(i);
+            Label name = new Label((i + 1) + ". " + user.getUsername());
+            name.setStyle("-fx-text-fill: #e0e0e0;");
+            name.setMinWidth(160);
+            Label amount = new Label(value.apply(user));
+            amount.setStyle("-fx-text-fill: #81c784;");
+            box.getChildren().add(new HBox(10, name, amount));
+        }
     }
 }
@@ -3,7 +3,9 @@ package com.example.watermanagementsystem.controllers;
 import com.example.watermanagementsystem.models.Bill;
 import com.example.watermanagementsystem.models.Payment;
 import com.example.watermanagementsystem.models.User;
+import com.example.watermanagementsystem.utils.BillingEngine;
 import com.example.watermanagementsystem.utils.UIManager;
+import javafx.application.Platform;
 import javafx.fxml.FXML;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
@@ -31,6 +33,8 @@ public class BillingController {
     @FXML private ComboBox<String> statusFilterCombo;
     @FXML private TextField searchField;
     @FXML private FlowPane billsFlowPane;
+    @FXML private Button generateAllButton;
+    @FXML private CheckBox notifyUsersCheckBox;
 
     private List<Bill> allBills;
     private List<User> allUsers;
@@ -349,6 +353,60 @@ public class BillingController {
         }
     }
 
+    // Bills every user with unbilled usage; runs off the FX thread and reports progress per written batch
+    @FXML
+    protected void handleGenerateAllBills(ActionEvent event) {
+        String billingPeriod = billingPeriodCombo.getValue();
+        if (billingPeriod == null) {
+            messageLabel.setText("Please select a billing period.");
+            messageLabel.setStyle("-fx-text-fill: #ff6b6b;");
+            return;
+        }
+
+        // Without notifications the run can bill each chunk of users with a few set-based statements
+        boolean notifyUsers = notifyUsersCheckBox.isSelected();
+        generateAllButton.setDisable(true);
+        messageLabel.setText("Generating bills for " + billingPeriod + "...");
+        messageLabel.setStyle("-fx-text-fill: #4fc3f7;");
+
+        Thread worker = new Thread(() -> {
+            DatabaseHandler.BillingProgressListener progress = (billsCreated, lastUserId, maxUserId) ->
+                    Platform.runLater(() -> messageLabel.setText(String.format(
+                            "Generating bills for %s...\n%d bills created (user %d of %d)",
+                            billingPeriod, billsCreated, lastUserId, maxUserId)));
+            String summary;
+            if (notifyUsers) {
+                BillingEngine.Report report;
+                try {
+                    report = new BillingEngine().run(billingPeriod, progress);
+                } catch (Exception e) {
+                    System.err.println("Bulk billing failed: " + e.getMessage());
+                    report = null;
+                }
+                summary = report == null ? null : String.format("%d bills generated for %s (%.0f users/s).",
+                        report.getBillsCreated(), billingPeriod, report.getUsersPerSecond());
+            } else {
+                int billsCreated = DatabaseHandler.generateBillsForAllUsers(billingPeriod, progress);
+                summary = billsCreated < 0 ? null : String.format("%d bills generated for %s (users not notified).",
+                        billsCreated, billingPeriod);
+            }
+            Platform.runLater(() -> {
+                generateAllButton.setDisable(false);
+                if (summary == null) {
+                    messageLabel.setText("Bulk billing was interrupted. Run it again to resume.");
+                    messageLabel.setStyle("-fx-text-fill: #ff6b6b;");
+                } else {
+                    messageLabel.setText(summary);
+                    messageLabel.setStyle("-fx-text-fill: #4fc3f7;");
+                }
+                loadBills();
+                updateStats();
+            });
+        }, "bulk-billing");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
     @FXML
     protected void handleRefreshBills(ActionEvent event) {
         loadBills();
@@ -3,33 +3,223 @@ package com.example.watermanagementsystem.controllers;
 import com.example.watermanagementsystem.models.User;
 import com.example.watermanagementsystem.models.Request;
 import com.example.watermanagementsystem.models.Bill;
+import com.example.watermanagementsystem.models.BillingRun;
 import com.example.watermanagementsystem.models.Payment;
 import com.example.watermanagementsystem.models.Notification;
+import com.example.watermanagementsystem.models.NotificationCounts;
+import com.example.watermanagementsystem.models.UsageTotals;
+import com.example.watermanagementsystem.models.SupplyLevelPoint;
+import com.example.watermanagementsystem.models.UserUsage;
+import com.example.watermanagementsystem.models.VolumeStats;
+import com.example.watermanagementsystem.utils.ConnectionPool;
+import com.example.watermanagementsystem.utils.DatabasePerformanceProfile;
+import com.example.watermanagementsystem.utils.DistinctCounter;
+import com.example.watermanagementsystem.utils.QuantileSketch;
+import com.example.watermanagementsystem.utils.SchemaMigrator;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
 import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.io.File;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
 
 public class DatabaseHandler {
-    private static final String DB_FILE = "database/water_db.sqlite";
-    private static final String URL = "jdbc:sqlite:" + DB_FILE;
+    // Overridable with -Dwms.db.file, or with useDatabaseFile() from the tests
+    private static volatile String dbFile = System.getProperty("wms.db.file", "database/water_db.sqlite");
+    // Every explicit transaction here writes, and most read before they write. BEGIN IMMEDIATE takes the
+    // write lock up front, so under WAL a concurrent writer makes us wait (busy_timeout) instead of
+    // failing the first write with SQLITE_BUSY_SNAPSHOT. Transactions end through ConnectionPool.commit(conn),
+    // never conn.commit(), which would take the write lock again straight away.
+    private static final String URL_OPTIONS = "?transaction_mode=IMMEDIATE";
+
+    private static final int POOL_SIZE = Integer.getInteger("wms.db.poolSize", 4);
+    private static final long POOL_ACQUIRE_TIMEOUT_MS = 10_000;
+    // Prepared statements kept per pooled connection; 0 disables the cache
+    private static final int STATEMENT_CACHE_SIZE = Integer.getInteger("wms.db.statementCacheSize", 64);
+    // Range of user ids billed per transaction by generateBillsForAllUsers()
+    private static final int BILLING_CHUNK_USERS = Integer.getInteger("wms.billing.chunkUsers", 1000);
+    // Bill ids bound per IN (...) list by getBillsByIds()
+    private static final int BILL_ID_CHUNK = 500;
+    // Notifications removed per write transaction by clearNotifications()
+    private static final int NOTIFICATION_DELETE_CHUNK = Integer.getInteger("wms.notifications.deleteChunk", 1000);
+    private static final long NOTIFICATION_DELETE_PAUSE_MS = 10;
+    private static final DatabasePerformanceProfile PROFILE = DatabasePerformanceProfile.fromSystemProperties();
+
+    private static volatile ConnectionPool pool;
+    private static ScheduledExecutorService checkpointScheduler;
+
+    // Create the pool on first use; the schema bootstrap runs exactly once, before any connection is handed out
+    private static ConnectionPool getPool() throws SQLException {
+        ConnectionPool p = pool;
+        if (p == null) {
+            synchronized (DatabaseHandler.class) {
+                p = pool;
+                if (p == null) {
+                    try {
+                        Class.forName("org.sqlite.JDBC");
+                    } catch (ClassNotFoundException e) {
+                        throw new SQLException("SQLite JDBC driver not found", e);
+                    }
+                    p = new ConnectionPool("jdbc:sqlite:" + dbFile + URL_OPTIONS, POOL_SIZE, POOL_ACQUIRE_TIMEOUT_MS,
+                            PROFILE.toConnectionSetup(), STATEMENT_CACHE_SIZE);
+                    try {
+                        ensureDatabaseExists(p);
+                    } catch (SQLException e) {
+                        // Never publish a pool over a half-migrated schema; the next caller retries the bootstrap
+                        p.close();
+                        throw e;
+                    }
+                    pool = p;
+                    startCheckpointScheduler();
+                    System.out.println("Database: connection pool ready (max " + POOL_SIZE + " connections, statement cache "
+                            + STATEMENT_CACHE_SIZE + ", " + PROFILE + ")");
+                }
+            }
+        }
+        return p;
+    }
+
+    // Most connections the pool hands out at once (-Dwms.db.poolSize)
+    public static int getPoolSize() {
+        return POOL_SIZE;
+    }
+
+    // Snapshot of connection pool usage (active, idle, wait times)
+    public static ConnectionPool.Stats getPoolStats() {
+        ConnectionPool p = pool;
+        return p != null ? p.getStats() : null;
+    }
+
+    public static DatabasePerformanceProfile getPerformanceProfile() {
+        return PROFILE;
+    }
+
+    // Periodic PASSIVE checkpoints keep the WAL file short without blocking readers or writers
+    private static void startCheckpointScheduler() {
+        if (!PROFILE.isWal() || PROFILE.getCheckpointIntervalSeconds() <= 0) {
+            return;
+        }
+        checkpointScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "wal-checkpoint");
+            t.setDaemon(true);
+            return t;
+        });
+        int interval = PROFILE.getCheckpointIntervalSeconds();
+        checkpointScheduler.scheduleWithFixedDelay(() -> checkpoint("PASSIVE"), interval, interval, TimeUnit.SECONDS);
+    }
+
+    // Run a WAL checkpoint (PASSIVE, FULL, RESTART or TRUNCATE); returns false if it could not complete
+    public static boolean checkpoint(String mode) {
+        if (!PROFILE.isWal()) {
+            return true;
+        }
+        try (Connection conn = connect();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA wal_checkpoint(" + mode + ")")) {
+            if (rs.next()) {
+                boolean busy = rs.getInt(1) != 0;
+                int walPages = rs.getInt(2);
+                int checkpointed = rs.getInt(3);
+                if (busy || checkpointed < walPages) {
+                    System.out.println("Database: WAL checkpoint (" + mode + ") incomplete: " + checkpointed + "/" + walPages + " pages");
+                    return false;
+                }
+            }
+            return true;
+        } catch (SQLException e) {
+            System.err.println("WAL checkpoint failed: " + e.getMessage());
+            return false;
+        }
+    }
+
+    // Close pooled connections on application exit
+    public static synchronized void shutdown() {
+        ConnectionPool p = pool;
+        if (p != null) {
+            if (checkpointScheduler != null) {
+                checkpointScheduler.shutdownNow();
+                checkpointScheduler = null;
+            }
+            // Fold the WAL back into the main file so the database is self-contained while the app is closed
+            checkpoint("TRUNCATE");
+            System.out.println("Database: closing connection pool (" + p.getStats() + ")");
+            p.close();
+            pool = null;
+        }
+    }
+
+    // Test hook: switch to another database file. The open pool is closed first, so the next connect()
+    // bootstraps the new file no matter which test touched DatabaseHandler before.
+    static synchronized void useDatabaseFile(String file) {
+        shutdown();
+        dbFile = file;
+        schemaReady = false;
+    }
 
-    private static synchronized void ensureDatabaseExists() {
+    // Ordered schema history. Append new migrations at the end; never edit one that has shipped.
+    private static final SchemaMigrator MIGRATIONS = new SchemaMigrator()
+            .add(1, "users and requests tables", DatabaseHandler::initializeDatabase)
+            .add(2, "legacy requests columns", DatabaseHandler::migrateRequestsTableIfNeeded)
+            .add(3, "water_supply table", DatabaseHandler::initializeSupplyIfNeeded)
+            .add(4, "bills and payments tables", DatabaseHandler::initializeBillingTables)
+            .add(5, "requests.billed and requests.bill_id", DatabaseHandler::ensureBilledColumnExists)
+            .add(6, "notifications table with target_user_id", DatabaseHandler::initializeNotificationsTable)
+            .add(7, "secondary indexes for query predicates", DatabaseHandler::createQueryIndexes)
+            .add(8, "payments.idempotency_key", DatabaseHandler::addPaymentIdempotencyKey)
+            .add(9, "billing_runs table and bills.run_id", DatabaseHandler::initializeBillingRuns)
+            .add(10, "user_usage_summary table", DatabaseHandler::initializeUsageSummary)
+            .add(11, "daily_usage rollup table", DatabaseHandler::initializeDailyUsage)
+            .add(12, "usage_sketches table", DatabaseHandler::initializeUsageSketches)
+            .add(13, "supply_forecast table", DatabaseHandler::initializeSupplyForecast)
+            .add(14, "supply_history table with hourly and daily rollups", DatabaseHandler::initializeSupplyHistory)
+            .add(15, "notifications.dedupe_key", DatabaseHandler::addNotificationDedupeKey)
+            .add(16, "normalized bills.due_date and open bills due-date index", DatabaseHandler::normalizeBillDueDates);
+
+    private static volatile boolean schemaReady;
+
+    // Hourly and daily rollups of supply_history, finest first
+    private static final String[] SUPPLY_ROLLUP_TABLES = {"supply_history_hourly", "supply_history_daily"};
+    private static final DateTimeFormatter SUPPLY_TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss");
+    // Largest number of points a history query returns before switching to a coarser resolution
+    private static final int SUPPLY_HISTORY_MAX_POINTS = 2000;
+
+    // True once the startup schema bootstrap has completed in this process
+    public static boolean isSchemaReady() {
+        return schemaReady;
+    }
+
+    // One-time schema bootstrap: creates the file and applies pending migrations over a single connection.
+    // A failure is thrown to getPool(), which then refuses to hand out connections.
+    private static synchronized void ensureDatabaseExists(ConnectionPool p) throws SQLException {
+        if (schemaReady) {
+            return;
+        }
         try {
-            Path dbPath = Paths.get(DB_FILE);
+            Path dbPath = Paths.get(dbFile);
             Path parent = dbPath.getParent();
             if (parent != null && !Files.exists(parent)) {
                 Files.createDirectories(parent);
@@ -38,15 +228,24 @@ public class DatabaseHandler {
             if (!f.exists()) {
                 f.createNewFile();
             }
-            initializeDatabase();
-            migrateRequestsTableIfNeeded();
-            initializeSupplyIfNeeded();
         } catch (IOException e) {
-            System.err.println("Failed to create DB directories/file: " + e.getMessage());
+            throw new SQLException("Failed to create DB directories/file: " + e.getMessage(), e);
+        }
+
+        long start = System.nanoTime();
+        try (Connection conn = p.getConnection()) {
+            int applied = MIGRATIONS.migrate(conn);
+            resolveTableShapes(conn);
+            schemaReady = true;
+            System.out.printf("Database: schema at version %d (%d migration(s) applied) in %.1f ms%n",
+                    MIGRATIONS.getLatestVersion(), applied, (System.nanoTime() - start) / 1_000_000.0);
+        } catch (SQLException e) {
+            System.err.println("Database bootstrap failed: " + e.getMessage());
+            throw e;
         }
     }
 
-    private static void initializeDatabase() {
+    private static void initializeDatabase(Connection conn) throws SQLException {
         String createUsers = "CREATE TABLE IF NOT EXISTS users (" +
                 "id INTEGER PRIMARY KEY AUTOINCREMENT," +
                 "username TEXT UNIQUE NOT NULL," +
@@ -63,23 +262,19 @@ public class DatabaseHandler {
                 "FOREIGN KEY(user_id) REFERENCES users(id)" +
                 ");";
 
-        try (Connection conn = DriverManager.getConnection(URL);
-             Statement stmt = conn.createStatement()) {
+        try (Statement stmt = conn.createStatement()) {
             stmt.execute(createUsers);
             stmt.execute(createRequests);
-        } catch (SQLException e) {
-            System.err.println("Failed to initialize database schema: " + e.getMessage());
         }
     }
 
-    private static void initializeSupplyIfNeeded() {
+    private static void initializeSupplyIfNeeded(Connection conn) throws SQLException {
         String createSupply = "CREATE TABLE IF NOT EXISTS water_supply (" +
                 "id INTEGER PRIMARY KEY," +
                 "current_level REAL DEFAULT 10000.0" +
                 ");";
 
-        try (Connection conn = DriverManager.getConnection(URL);
-             Statement stmt = conn.createStatement()) {
+        try (Statement stmt = conn.createStatement()) {
             stmt.execute(createSupply);
 
             ResultSet rs = stmt.executeQuery("SELECT COUNT(*) as cnt FROM water_supply");
@@ -87,111 +282,316 @@ public class DatabaseHandler {
                 stmt.execute("INSERT INTO water_supply (id, current_level) VALUES (1, 10000.0)");
                 System.out.println("Database: initialized water_supply with default level 10000.0 L");
             }
-        } catch (SQLException e) {
-            System.err.println("Failed to initialize water_supply: " + e.getMessage());
         }
     }
 
-    private static void migrateRequestsTableIfNeeded() {
-        try (Connection conn = DriverManager.getConnection(URL);
-             Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery("PRAGMA table_info('requests')")) {
+    // Very old databases created requests without some of the columns the app relies on
+    private static void migrateRequestsTableIfNeeded(Connection conn) throws SQLException {
+        SchemaMigrator.addColumnIfMissing(conn, "requests", "user_id", "INTEGER");
+        SchemaMigrator.addColumnIfMissing(conn, "requests", "volume", "REAL");
+        SchemaMigrator.addColumnIfMissing(conn, "requests", "date", "TEXT");
+        SchemaMigrator.addColumnIfMissing(conn, "requests", "status", "TEXT");
+    }
 
-            Set<String> cols = new HashSet<>();
-            while (rs.next()) {
-                cols.add(rs.getString("name").toLowerCase());
+    // One index per hot predicate. Unbilled lookups use a partial index, so the queries
+    // must spell the predicate exactly as status = 'Approved' AND billed = 0.
+    private static void createQueryIndexes(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("UPDATE requests SET billed = 0 WHERE billed IS NULL");
+
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_requests_user_date ON requests(user_id, date)");
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_requests_status_date ON requests(status, date)");
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_requests_unbilled ON requests(user_id) " +
+                    "WHERE status = 'Approved' AND billed = 0");
+
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_bills_user_billing_date ON bills(user_id, billing_date)");
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_bills_status_due_date ON bills(status, due_date)");
+
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_payments_user_date ON payments(user_id, payment_date)");
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_payments_bill ON payments(bill_id)");
+
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_notifications_target_created ON notifications(target_user_id, created_at)");
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_notifications_target_unread ON notifications(target_user_id, is_read, created_at)");
+        }
+    }
+
+    // Due-soon queries compare due_date as text, so every row is rewritten to the yyyy-MM-dd HH:mm:ss
+    // shape the app writes. Open bills get a partial index in due-date order, so the queries must
+    // spell the predicate exactly as status IN ('Unpaid', 'Partial').
+    private static void normalizeBillDueDates(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("UPDATE bills SET due_date = NULL WHERE trim(due_date) = ''");
+            int fixed = stmt.executeUpdate("UPDATE bills SET due_date = strftime('%Y-%m-%d %H:%M:%S', due_date) " +
+                    "WHERE strftime('%Y-%m-%d %H:%M:%S', due_date) IS NOT NULL " +
+                    "AND due_date <> strftime('%Y-%m-%d %H:%M:%S', due_date)");
+            if (fixed > 0) {
+                System.out.println("Database migration: normalized " + fixed + " bill due date(s).");
             }
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_bills_open_due_date ON bills(due_date) " +
+                    "WHERE status IN ('Unpaid', 'Partial')");
+        }
+    }
 
-            List<String> required = new ArrayList<>();
-            required.add("user_id");
-            required.add("volume");
-            required.add("date");
-            required.add("status");
+    // Client-supplied key that makes a payment safe to retry; older payments have none
+    private static void addPaymentIdempotencyKey(Connection conn) throws SQLException {
+        SchemaMigrator.addColumnIfMissing(conn, "payments", "idempotency_key", "TEXT");
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE UNIQUE INDEX IF NOT EXISTS idx_payments_idempotency_key ON payments(idempotency_key) " +
+                    "WHERE idempotency_key IS NOT NULL");
+        }
+    }
 
-            for (String col : required) {
-                if (!cols.contains(col)) {
-                    try {
-                        String alterSql;
-                        switch (col) {
-                            case "date":
-                                alterSql = "ALTER TABLE requests ADD COLUMN date TEXT;";
-                                break;
-                            case "status":
-                                alterSql = "ALTER TABLE requests ADD COLUMN status TEXT;";
-                                break;
-                            case "volume":
-                                alterSql = "ALTER TABLE requests ADD COLUMN volume REAL;";
-                                break;
-                            case "user_id":
-                                alterSql = "ALTER TABLE requests ADD COLUMN user_id INTEGER;";
-                                break;
-                            default:
-                                continue;
-                        }
-                        stmt.execute(alterSql);
-                        System.out.println("Database migration: added column '" + col + "' to requests table.");
-                    } catch (SQLException alterEx) {
-                        System.err.println("Failed to add column '" + col + "': " + alterEx.getMessage());
+    // Bulk billing runs checkpoint here; bills created by a run carry its id
+    private static void initializeBillingRuns(Connection conn) throws SQLException {
+        String createRuns = "CREATE TABLE IF NOT EXISTS billing_runs (" +
+                "id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                "billing_period TEXT," +
+                "status TEXT DEFAULT 'Running'," +
+                "last_user_id INTEGER DEFAULT 0," +
+                "bills_created INTEGER DEFAULT 0," +
+                "started_at TEXT," +
+                "finished_at TEXT" +
+                ");";
+
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute(createRuns);
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_billing_runs_period_status ON billing_runs(billing_period, status)");
+        }
+        SchemaMigrator.addColumnIfMissing(conn, "bills", "run_id", "INTEGER");
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_bills_run_user ON bills(run_id, user_id) WHERE run_id IS NOT NULL");
+        }
+    }
+
+    // Per-user counters kept in step with approvals and billing, so usage lookups are key reads
+    private static void initializeUsageSummary(Connection conn) throws SQLException {
+        String createSummary = "CREATE TABLE IF NOT EXISTS user_usage_summary (" +
+                "user_id INTEGER PRIMARY KEY," +
+                "unbilled_volume REAL DEFAULT 0," +
+                "approved_count INTEGER DEFAULT 0," +
+                "last_request_date TEXT" +
+                ");";
+
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute(createSummary);
+            stmt.execute("INSERT OR REPLACE INTO user_usage_summary " + USAGE_SUMMARY_SELECT + " GROUP BY user_id");
+        }
+    }
+
+    // Approved volume per day and user; analytics read this instead of the request history.
+    // usage_date is the yyyy-MM-dd prefix of requests.date, which both stored date formats share.
+    private static void initializeDailyUsage(Connection conn) throws SQLException {
+        String createDailyUsage = "CREATE TABLE IF NOT EXISTS daily_usage (" +
+                "usage_date TEXT NOT NULL," +
+                "user_id INTEGER NOT NULL," +
+                "volume REAL DEFAULT 0," +
+                "request_count INTEGER DEFAULT 0," +
+                "PRIMARY KEY (usage_date, user_id)" +
+                ") WITHOUT ROWID;";
+
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute(createDailyUsage);
+            stmt.execute("INSERT OR REPLACE INTO daily_usage (usage_date, user_id, volume, request_count) " +
+                    "SELECT substr(date, 1, 10), user_id, SUM(volume), COUNT(*) FROM requests " +
+                    "WHERE status = 'Approved' AND date IS NOT NULL AND user_id IS NOT NULL " +
+                    "GROUP BY substr(date, 1, 10), user_id");
+        }
+    }
+
+    // Per-day volume quantile sketch and distinct-user counter; analytics merge days instead of reading requests
+    private static void initializeUsageSketches(Connection conn) throws SQLException {
+        String createSketches = "CREATE TABLE IF NOT EXISTS usage_sketches (" +
+                "usage_date TEXT PRIMARY KEY," +
+                "volume_sketch BLOB NOT NULL," +
+                "user_counter BLOB NOT NULL" +
+                ") WITHOUT ROWID;";
+
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute(createSketches);
+        }
+        rebuildUsageSketches(conn, null);
+    }
+
+    // Recomputes the sketches of one day, or of every day when day is null
+    private static void rebuildUsageSketches(Connection conn, String day) throws SQLException {
+        String nextDay = day != null ? nextDay(day) : null;
+        String selectSql = "SELECT substr(date, 1, 10) AS day, user_id, volume FROM requests " +
+                "WHERE status = 'Approved' AND date IS NOT NULL" +
+                (day != null ? " AND " + dayFilter(nextDay) : "") + " ORDER BY day";
+        try (PreparedStatement pstmt = conn.prepareStatement(day != null
+                ? "DELETE FROM usage_sketches WHERE usage_date = ?" : "DELETE FROM usage_sketches")) {
+            if (day != null) {
+                pstmt.setString(1, day);
+            }
+            pstmt.executeUpdate();
+        }
+
+        try (PreparedStatement select = conn.prepareStatement(selectSql);
+             PreparedStatement insert = conn.prepareStatement(
+                     "INSERT INTO usage_sketches (usage_date, volume_sketch, user_counter) VALUES (?, ?, ?)")) {
+            if (day != null) {
+                select.setString(1, day);
+                if (nextDay != null) {
+                    select.setString(2, nextDay);
+                }
+            }
+            ResultSet rs = select.executeQuery();
+            String currentDay = null;
+            QuantileSketch volumes = null;
+            DistinctCounter users = null;
+            while (rs.next()) {
+                String rowDay = rs.getString("day");
+                if (!rowDay.equals(currentDay)) {
+                    if (currentDay != null) {
+                        addSketchRow(insert, currentDay, volumes, users);
                     }
+                    currentDay = rowDay;
+                    volumes = new QuantileSketch();
+                    users = new DistinctCounter();
+                }
+                volumes.add(rs.getDouble("volume"));
+                int userId = rs.getInt("user_id");
+                if (!rs.wasNull()) {
+                    users.add(userId);
                 }
             }
-        } catch (SQLException e) {
-            System.err.println("Migration check failed: " + e.getMessage());
+            if (currentDay != null) {
+                addSketchRow(insert, currentDay, volumes, users);
+            }
+            insert.executeBatch();
         }
     }
 
-    private static Set<String> getRequestColumns() {
-        Set<String> cols = new HashSet<>();
-        try (Connection conn = DriverManager.getConnection(URL);
-             Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery("PRAGMA table_info('requests')")) {
-            while (rs.next()) {
-                String name = rs.getString("name");
-                if (name != null) cols.add(name.toLowerCase());
+    private static void addSketchRow(PreparedStatement insert, String day, QuantileSketch volumes,
+                                     DistinctCounter users) throws SQLException {
+        insert.setString(1, day);
+        insert.setBytes(2, volumes.toBytes());
+        insert.setBytes(3, users.toBytes());
+        insert.addBatch();
+    }
+
+    // Single row holding the serialized demand model of SupplyForecaster
+    private static void initializeSupplyForecast(Connection conn) throws SQLException {
+        String createForecast = "CREATE TABLE IF NOT EXISTS supply_forecast (" +
+                "id INTEGER PRIMARY KEY CHECK (id = 1)," +
+                "model BLOB NOT NULL," +
+                "updated_at TEXT" +
+                ");";
+
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute(createForecast);
+        }
+    }
+
+    // Append-only log of supply level changes plus per-hour and per-day min/max/last rollups for charts
+    private static void initializeSupplyHistory(Connection conn) throws SQLException {
+        String createHistory = "CREATE TABLE IF NOT EXISTS supply_history (" +
+                "id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                "recorded_at TEXT NOT NULL," +
+                "level REAL NOT NULL," +
+                "change REAL NOT NULL," +
+                "reason TEXT" +
+                ");";
+
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute(createHistory);
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_supply_history_time ON supply_history(recorded_at)");
+            for (String rollup : SUPPLY_ROLLUP_TABLES) {
+                stmt.execute("CREATE TABLE IF NOT EXISTS " + rollup + " (" +
+                        "bucket_start TEXT PRIMARY KEY," +
+                        "min_level REAL NOT NULL," +
+                        "max_level REAL NOT NULL," +
+                        "last_level REAL NOT NULL," +
+                        "change_count INTEGER NOT NULL" +
+                        ") WITHOUT ROWID;");
+            }
+
+            // Start the series at the level the reservoir has now
+            ResultSet rs = stmt.executeQuery("SELECT current_level FROM water_supply WHERE id = 1");
+            if (rs.next()) {
+                double level = rs.getDouble("current_level");
+                rs.close();
+                recordSupplyChange(conn, level, 0, "Initial level");
             }
-        } catch (SQLException e) {
-            System.err.println("Failed to read requests table info: " + e.getMessage());
         }
-        return cols;
     }
 
-    private static Set<String> getUserColumns() {
+    private static Set<String> getTableColumns(Connection conn, String table) throws SQLException {
         Set<String> cols = new HashSet<>();
-        try (Connection conn = DriverManager.getConnection(URL);
-             Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery("PRAGMA table_info('users')")) {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA table_info('" + table + "')")) {
             while (rs.next()) {
                 String name = rs.getString("name");
                 if (name != null) cols.add(name.toLowerCase());
             }
-        } catch (SQLException e) {
-            System.err.println("Failed to read users table info: " + e.getMessage());
         }
         return cols;
     }
 
+    // user_usage_summary rows recomputed from the requests table
+    private static final String USAGE_SUMMARY_SELECT = "SELECT user_id, " +
+            "COALESCE(SUM(CASE WHEN billed = 0 THEN volume END), 0) AS unbilled_volume, " +
+            "COUNT(*) AS approved_count, MAX(date) AS last_request_date " +
+            "FROM requests WHERE status = 'Approved' AND user_id IS NOT NULL";
+
+    // Table shapes resolved once after migrations; the hot paths only read these
+    private static volatile String insertRequestSql;
+    private static volatile Map<String, Integer> insertRequestParams = Map.of();
+    private static volatile String authenticateUserSql;
+    private static volatile boolean usersHavePasswordHash;
+    private static volatile boolean usersHavePlainPassword;
+
+    // The shapes are filled in by the bootstrap, which runs when the pool is first created
+    private static boolean tableShapesResolved() {
+        try {
+            getPool();
+        } catch (SQLException e) {
+            System.err.println("Database connection error: " + e.getMessage());
+        }
+        return schemaReady;
+    }
+
+    private static void resolveTableShapes(Connection conn) throws SQLException {
+        // Older databases name the submission date column date_submitted (NOT NULL), so fill both when present
+        Set<String> requestCols = getTableColumns(conn, "requests");
+        Map<String, Integer> params = new LinkedHashMap<>();
+        for (String col : new String[]{"user_id", "volume", "date", "date_submitted", "status"}) {
+            if (requestCols.contains(col)) {
+                params.put(col, params.size() + 1);
+            }
+        }
+        insertRequestParams = Collections.unmodifiableMap(params);
+        insertRequestSql = params.isEmpty() ? null
+                : "INSERT INTO requests (" + String.join(", ", params.keySet()) + ") VALUES ("
+                  + String.join(", ", Collections.nCopies(params.size(), "?")) + ")";
+
+        Set<String> userCols = getTableColumns(conn, "users");
+        usersHavePasswordHash = userCols.contains("password_hash");
+        usersHavePlainPassword = userCols.contains("password");
+        StringBuilder select = new StringBuilder("id, username, role");
+        if (usersHavePasswordHash) select.append(", password_hash");
+        if (usersHavePlainPassword) select.append(", password");
+        authenticateUserSql = "SELECT " + select + " FROM users WHERE username = ? LIMIT 1";
+    }
+
     public static Connection connect() {
         Connection conn = null;
         try {
-            ensureDatabaseExists();
-
-            Class.forName("org.sqlite.JDBC");
-            conn = DriverManager.getConnection(URL);
-        } catch (SQLException | ClassNotFoundException e) {
+            conn = getPool().getConnection();
+        } catch (SQLException e) {
             System.err.println("Database connection error: " + e.getMessage());
         }
         return conn;
     }
 
     public static User authenticateUser(String username, String password) {
-        Set<String> cols = getUserColumns();
-        StringBuilder select = new StringBuilder("id, username, role");
-        boolean hasHash = cols.contains("password_hash");
-        boolean hasPlain = cols.contains("password");
-        if (hasHash) select.append(", password_hash");
-        if (hasPlain) select.append(", password");
-
-        String sql = "SELECT " + select.toString() + " FROM users WHERE username = ? LIMIT 1";
+        if (!tableShapesResolved()) {
+            System.err.println("Authentication error: database schema is not ready");
+            return null;
+        }
+        String sql = authenticateUserSql;
+        boolean hasHash = usersHavePasswordHash;
+        boolean hasPlain = usersHavePlainPassword;
 
         try (Connection conn = connect();
              PreparedStatement pstmt = conn.prepareStatement(sql)) {
@@ -248,89 +648,82 @@ public class DatabaseHandler {
     }
 
     public static Request insertRequest(int userId, double volume, LocalDateTime date, String status) {
-        Set<String> cols = getRequestColumns();
-
-        List<String> insertCols = new ArrayList<>();
-        List<String> placeholders = new ArrayList<>();
-        List<Object> values = new ArrayList<>();
-
-        if (cols.contains("user_id")) {
-            insertCols.add("user_id");
-            placeholders.add("?");
-            values.add(userId);
-        }
-
-        if (cols.contains("volume")) {
-            insertCols.add("volume");
-            placeholders.add("?");
-            values.add(volume);
-        }
-
-        String dateStr = date != null ? date.format(DateTimeFormatter.ISO_LOCAL_DATE_TIME) : null;
-        if (cols.contains("date")) {
-            insertCols.add("date");
-            placeholders.add("?");
-            values.add(dateStr);
-        }
-        if (cols.contains("date_submitted")) {
-            insertCols.add("date_submitted");
-            placeholders.add("?");
-            values.add(dateStr);
-        }
-
-        if (cols.contains("status")) {
-            insertCols.add("status");
-            placeholders.add("?");
-            values.add(status);
-        }
-
-        if (insertCols.isEmpty()) {
+        if (!tableShapesResolved() || insertRequestSql == null) {
             System.err.println("No valid columns to insert into requests table.");
             return null;
         }
+        String sql = insertRequestSql;
+        Map<String, Integer> params = insertRequestParams;
 
-        String sql = "INSERT INTO requests (" + String.join(", ", insertCols) + ") VALUES (" + String.join(", ", placeholders) + ")";
-        try (Connection conn = connect();
-             PreparedStatement pstmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
-
-            for (int i = 0; i < values.size(); i++) {
-                Object v = values.get(i);
-                if (v instanceof Integer) {
-                    pstmt.setInt(i + 1, (Integer) v);
-                } else if (v instanceof Double) {
-                    pstmt.setDouble(i + 1, (Double) v);
-                } else {
-                    pstmt.setString(i + 1, v != null ? v.toString() : null);
+        String dateStr = date != null ? date.format(DateTimeFormatter.ISO_LOCAL_DATE_TIME) : null;
+        boolean approved = "Approved".equals(status);
+        int id = 0;
+        double supplyLevel = 0;
+        try (Connection conn = connect()) {
+            // An approved insert and its rollup upserts commit together, or not at all
+            conn.setAutoCommit(false);
+            try (PreparedStatement pstmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+                for (Map.Entry<String, Integer> param : params.entrySet()) {
+                    int index = param.getValue();
+                    switch (param.getKey()) {
+                        case "user_id":
+                            pstmt.setInt(index, userId);
+                            break;
+                        case "volume":
+                            pstmt.setDouble(index, volume);
+                            break;
+                        case "status":
+                            pstmt.setString(index, status);
+                            break;
+                        default:
+                            pstmt.setString(index, dateStr);
+                            break;
+                    }
                 }
-            }
 
-            int affected = pstmt.executeUpdate();
-            if (affected == 0) {
-                return null;
-            }
-            try (ResultSet keys = pstmt.getGeneratedKeys()) {
-                int id = 0;
-                if (keys != null && keys.next()) {
-                    id = keys.getInt(1);
-                } else {
-                    try (Statement s = conn.createStatement();
-                         ResultSet rs = s.executeQuery("SELECT last_insert_rowid()")) {
-                        if (rs.next()) id = rs.getInt(1);
-                    } catch (SQLException ignore) { }
+                int affected = pstmt.executeUpdate();
+                if (affected == 0) {
+                    conn.rollback();
+                    return null;
+                }
+                try (ResultSet keys = pstmt.getGeneratedKeys()) {
+                    if (keys != null && keys.next()) {
+                        id = keys.getInt(1);
+                    } else {
+                        try (Statement s = conn.createStatement();
+                             ResultSet rs = s.executeQuery("SELECT last_insert_rowid()")) {
+                            if (rs.next()) id = rs.getInt(1);
+                        } catch (SQLException ignore) { }
+                    }
                 }
-                return new Request(id, userId, volume, date, status);
+                if (approved) {
+                    addApprovedUsage(conn, id);
+                    supplyLevel = readSupplyLevel(conn);
+                }
+                ConnectionPool.commit(conn);
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
             }
         } catch (SQLException e) {
             System.err.println("Insert request error: " + e.getMessage());
             return null;
         }
+
+        if (approved) {
+            fireApproved(id, userId, volume, date, supplyLevel);
+        }
+        return new Request(id, userId, volume, date, status);
     }
 
+    static final String REQUESTS_BY_USER_SQL = "SELECT * FROM requests WHERE user_id = ?";
+
     public static List<Request> getRequestsByUser(int userId) {
-        String sql = "SELECT * FROM requests WHERE user_id = ?";
         List<Request> requests = new ArrayList<>();
         try (Connection conn = connect();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+             PreparedStatement pstmt = conn.prepareStatement(REQUESTS_BY_USER_SQL)) {
             pstmt.setInt(1, userId);
             ResultSet rs = pstmt.executeQuery();
             while (rs.next()) {
@@ -342,12 +735,13 @@ public class DatabaseHandler {
         return requests;
     }
 
+    static final String APPROVED_REQUESTS_SQL = "SELECT * FROM requests WHERE status = 'Approved'";
+
     public static List<Request> getApprovedRequests() {
-        String sql = "SELECT * FROM requests WHERE status = 'Approved'";
         List<Request> requests = new ArrayList<>();
         try (Connection conn = connect();
              Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery(sql)) {
+             ResultSet rs = stmt.executeQuery(APPROVED_REQUESTS_SQL)) {
             while (rs.next()) {
                 requests.add(mapRowToRequest(rs));
             }
@@ -376,20 +770,7 @@ public class DatabaseHandler {
         int id = rs.getInt("id");
         int userId = rs.getInt("user_id");
         double volume = rs.getDouble("volume");
-        String dateStr = rs.getString("date");
-        LocalDateTime date = null;
-        if (dateStr != null) {
-            try {
-                date = LocalDateTime.parse(dateStr, DateTimeFormatter.ISO_LOCAL_DATE_TIME);
-            } catch (Exception e) {
-                // Fallback for older format if needed
-                try {
-                    date = LocalDateTime.parse(dateStr, DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"));
-                } catch (Exception e2) {
-                    System.err.println("Could not parse date: " + dateStr);
-                }
-            }
-        }
+        LocalDateTime date = parseRequestDate(rs.getString("date"));
         String status = rs.getString("status");
 
         // Check if username column exists and fetch it
@@ -405,6 +786,23 @@ public class DatabaseHandler {
         return new Request(id, userId, volume, date, status, username);
     }
 
+    private static LocalDateTime parseRequestDate(String dateStr) {
+        if (dateStr == null) {
+            return null;
+        }
+        try {
+            return LocalDateTime.parse(dateStr, DateTimeFormatter.ISO_LOCAL_DATE_TIME);
+        } catch (Exception e) {
+            // Fallback for older format if needed
+            try {
+                return LocalDateTime.parse(dateStr, DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"));
+            } catch (Exception e2) {
+                System.err.println("Could not parse date: " + dateStr);
+                return null;
+            }
+        }
+    }
+
     public static List<Request> getAllRequestsWithUsernames() {
         String sql = "SELECT r.*, u.username FROM requests r JOIN users u ON r.user_id = u.id";
         List<Request> requests = new ArrayList<>();
@@ -421,30 +819,44 @@ public class DatabaseHandler {
     }
 
     public static boolean updateRequestStatus(int requestId, String status) {
-        Set<String> cols = getRequestColumns();
-        if (!cols.contains("status")) {
-            try (Connection conn = DriverManager.getConnection(URL);
-                 Statement stmt = conn.createStatement()) {
-                stmt.execute("ALTER TABLE requests ADD COLUMN status TEXT;");
-                System.out.println("Database migration: added column 'status' to requests table (during update).");
+        String sql = "UPDATE requests SET status = ? WHERE id = ?";
+        Request before;
+        int affected;
+        double supplyLevel;
+        try (Connection conn = connect()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                before = findRequest(conn, requestId);
+                pstmt.setString(1, status);
+                pstmt.setInt(2, requestId);
+                affected = pstmt.executeUpdate();
+                // The request may move into or out of 'Approved'; recount its owner's usage
+                if (affected > 0) {
+                    refreshUsageSummaryForRequest(conn, requestId);
+                }
+                supplyLevel = readSupplyLevel(conn);
+                ConnectionPool.commit(conn);
             } catch (SQLException e) {
-                System.err.println("Failed to add status column during update: " + e.getMessage());
-                return false;
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
             }
-        }
-
-        String sql = "UPDATE requests SET status = ? WHERE id = ?";
-        try (Connection conn = connect();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-
-            pstmt.setString(1, status);
-            pstmt.setInt(2, requestId);
-            int affected = pstmt.executeUpdate();
-            return affected > 0;
         } catch (SQLException e) {
             System.err.println("Update request status error: " + e.getMessage());
             return false;
         }
+
+        // Listeners run once the write lock is released
+        boolean wasApproved = before != null && "Approved".equals(before.getStatus());
+        if (affected > 0 && before != null && wasApproved != "Approved".equals(status)) {
+            if (wasApproved) {
+                fireReversed(requestId, before.getUserId(), before.getVolume(), before.getDate());
+            } else {
+                fireApproved(requestId, before.getUserId(), before.getVolume(), before.getDate(), supplyLevel);
+            }
+        }
+        return affected > 0;
     }
 
     public static double getSupplyLevel() {
@@ -462,45 +874,630 @@ public class DatabaseHandler {
     }
 
     public static boolean updateSupplyLevel(double newLevel) {
-        String sql = "UPDATE water_supply SET current_level = ? WHERE id = 1";
+        // The history row is written first and takes its change from the level it replaces
+        String historySql = "INSERT INTO supply_history (recorded_at, level, change, reason) " +
+                "SELECT ?, ?, ? - current_level, 'Manual update' FROM water_supply WHERE id = 1";
+        String updateSql = "UPDATE water_supply SET current_level = ? WHERE id = 1";
+        LocalDateTime now = LocalDateTime.now().truncatedTo(ChronoUnit.SECONDS);
+        try (Connection conn = connect()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement historyStmt = conn.prepareStatement(historySql);
+                 PreparedStatement updateStmt = conn.prepareStatement(updateSql)) {
+                historyStmt.setString(1, now.format(SUPPLY_TIME_FORMAT));
+                historyStmt.setDouble(2, newLevel);
+                historyStmt.setDouble(3, newLevel);
+                if (historyStmt.executeUpdate() == 0) {
+                    conn.rollback();
+                    return false;
+                }
+                updateStmt.setDouble(1, newLevel);
+                updateStmt.executeUpdate();
+                addToSupplyRollups(conn, newLevel, now);
+                ConnectionPool.commit(conn);
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            System.err.println("Failed to update supply level: " + e.getMessage());
+            return false;
+        }
+        fireSupplyLevelChanged(newLevel);
+        return true;
+    }
+
+    private static double readSupplyLevel(Connection conn) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement("SELECT current_level FROM water_supply WHERE id = 1");
+             ResultSet rs = pstmt.executeQuery()) {
+            return rs.next() ? rs.getDouble("current_level") : 0.0;
+        }
+    }
+
+    // Appends a supply change and folds it into its hour and day; runs in the caller's transaction
+    private static void recordSupplyChange(Connection conn, double level, double change, String reason) throws SQLException {
+        LocalDateTime now = LocalDateTime.now().truncatedTo(ChronoUnit.SECONDS);
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "INSERT INTO supply_history (recorded_at, level, change, reason) VALUES (?, ?, ?, ?)")) {
+            pstmt.setString(1, now.format(SUPPLY_TIME_FORMAT));
+            pstmt.setDouble(2, level);
+            pstmt.setDouble(3, change);
+            pstmt.setString(4, reason);
+            pstmt.executeUpdate();
+        }
+        addToSupplyRollups(conn, level, now);
+    }
+
+    // Folds a level recorded at the given time into its hourly and daily rollup rows
+    private static void addToSupplyRollups(Connection conn, double level, LocalDateTime now) throws SQLException {
+        String[] buckets = {
+                now.truncatedTo(ChronoUnit.HOURS).format(SUPPLY_TIME_FORMAT),
+                now.truncatedTo(ChronoUnit.DAYS).format(SUPPLY_TIME_FORMAT)
+        };
+        for (int i = 0; i < SUPPLY_ROLLUP_TABLES.length; i++) {
+            try (PreparedStatement pstmt = conn.prepareStatement(
+                    "INSERT INTO " + SUPPLY_ROLLUP_TABLES[i] + " (bucket_start, min_level, max_level, last_level, change_count) " +
+                    "VALUES (?, ?, ?, ?, 1) ON CONFLICT(bucket_start) DO UPDATE SET " +
+                    "min_level = MIN(min_level, excluded.min_level), max_level = MAX(max_level, excluded.max_level), " +
+                    "last_level = excluded.last_level, change_count = change_count + 1")) {
+                pstmt.setString(1, buckets[i]);
+                pstmt.setDouble(2, level);
+                pstmt.setDouble(3, level);
+                pstmt.setDouble(4, level);
+                pstmt.executeUpdate();
+            }
+        }
+    }
+
+    // Supply level over [from, to) at the finest resolution (raw, hourly, daily) that fits in
+    // SUPPLY_HISTORY_MAX_POINTS, so a year of history reads at most a few hundred daily rows
+    public static List<SupplyLevelPoint> getSupplyHistory(LocalDateTime from, LocalDateTime to) {
+        String fromStr = from.format(SUPPLY_TIME_FORMAT);
+        String toStr = to.format(SUPPLY_TIME_FORMAT);
+        List<SupplyLevelPoint> points = new ArrayList<>();
+        try (Connection conn = connect()) {
+            String sql;
+            long hours = ChronoUnit.HOURS.between(from, to);
+            if (countSupplyHistory(conn, fromStr, toStr) <= SUPPLY_HISTORY_MAX_POINTS) {
+                sql = "SELECT recorded_at AS time, level, level AS min_level, level AS max_level FROM supply_history " +
+                        "WHERE recorded_at >= ? AND recorded_at < ? ORDER BY recorded_at";
+            } else {
+                String table = hours <= SUPPLY_HISTORY_MAX_POINTS ? SUPPLY_ROLLUP_TABLES[0] : SUPPLY_ROLLUP_TABLES[1];
+                sql = "SELECT bucket_start AS time, last_level AS level, min_level, max_level FROM " + table +
+                        " WHERE bucket_start >= ? AND bucket_start < ? ORDER BY bucket_start";
+            }
+            try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                pstmt.setString(1, fromStr);
+                pstmt.setString(2, toStr);
+                ResultSet rs = pstmt.executeQuery();
+                while (rs.next()) {
+                    points.add(new SupplyLevelPoint(LocalDateTime.parse(rs.getString("time"), SUPPLY_TIME_FORMAT),
+                            rs.getDouble("level"), rs.getDouble("min_level"), rs.getDouble("max_level")));
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("Failed to get supply history: " + e.getMessage());
+        }
+        return points;
+    }
+
+    // Stops counting past the point limit; only "small enough or not" matters
+    private static int countSupplyHistory(Connection conn, String from, String to) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "SELECT COUNT(*) FROM (SELECT 1 FROM supply_history WHERE recorded_at >= ? AND recorded_at < ? LIMIT ?)")) {
+            pstmt.setString(1, from);
+            pstmt.setString(2, to);
+            pstmt.setInt(3, SUPPLY_HISTORY_MAX_POINTS + 1);
+            ResultSet rs = pstmt.executeQuery();
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    public static byte[] loadSupplyForecast() {
+        String sql = "SELECT model FROM supply_forecast WHERE id = 1";
+        try (Connection conn = connect();
+             PreparedStatement pstmt = conn.prepareStatement(sql);
+             ResultSet rs = pstmt.executeQuery()) {
+            if (rs.next()) {
+                return rs.getBytes("model");
+            }
+        } catch (SQLException e) {
+            System.err.println("Failed to load supply forecast: " + e.getMessage());
+        }
+        return null;
+    }
+
+    public static boolean saveSupplyForecast(byte[] model) {
+        String sql = "INSERT OR REPLACE INTO supply_forecast (id, model, updated_at) VALUES (1, ?, ?)";
         try (Connection conn = connect();
              PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setDouble(1, newLevel);
-            int affected = pstmt.executeUpdate();
-            return affected > 0;
+            pstmt.setBytes(1, model);
+            pstmt.setString(2, LocalDateTime.now().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME));
+            return pstmt.executeUpdate() > 0;
         } catch (SQLException e) {
-            System.err.println("Failed to update supply level: " + e.getMessage());
+            System.err.println("Failed to save supply forecast: " + e.getMessage());
             return false;
         }
     }
 
+    // Supply drawn by approvals since the given time, summed per hour of the week (index 0 = Monday 00:00)
+    // of the approval itself; the request's own date may lie days before or after it
+    public static double[] getHourOfWeekDemand(LocalDateTime since) {
+        String sql = "SELECT CAST(strftime('%w', recorded_at) AS INTEGER) AS dow, CAST(strftime('%H', recorded_at) AS INTEGER) AS hour, " +
+                "-SUM(change) AS volume FROM supply_history " +
+                "WHERE recorded_at >= ? AND change < 0 AND reason LIKE 'Request #% approved' GROUP BY dow, hour";
+        double[] demand = new double[168];
+        try (Connection conn = connect();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setString(1, since.format(SUPPLY_TIME_FORMAT));
+            ResultSet rs = pstmt.executeQuery();
+            while (rs.next()) {
+                // strftime counts days from Sunday = 0
+                int day = (rs.getInt("dow") + 6) % 7;
+                demand[day * 24 + rs.getInt("hour")] += rs.getDouble("volume");
+            }
+        } catch (SQLException e) {
+            System.err.println("Failed to get hourly demand: " + e.getMessage());
+        }
+        return demand;
+    }
+
+    // Time of the oldest supply_history entry, or null if the log is empty or unreadable
+    public static LocalDateTime getSupplyHistoryStart() {
+        String sql = "SELECT MIN(recorded_at) FROM supply_history";
+        try (Connection conn = connect();
+             PreparedStatement pstmt = conn.prepareStatement(sql);
+             ResultSet rs = pstmt.executeQuery()) {
+            String first = rs.next() ? rs.getString(1) : null;
+            return first != null ? LocalDateTime.parse(first, SUPPLY_TIME_FORMAT) : null;
+        } catch (SQLException e) {
+            System.err.println("Failed to read supply history start: " + e.getMessage());
+            return null;
+        }
+    }
+
+    // Approve a pending request and deduct its volume from the supply in one transaction.
+    // Both updates are guarded, so concurrent approvals can neither approve a request twice
+    // nor take the supply below zero.
     public static boolean approveRequestWithSupply(int requestId, double volume) {
-        double currentSupply = getSupplyLevel();
+        String approveSql = "UPDATE requests SET status = 'Approved' WHERE id = ? AND status = 'Pending'";
+        String deductSql = "UPDATE water_supply SET current_level = current_level - ? WHERE id = 1 AND current_level >= ?";
+        Request approved;
+        double supplyLevel;
+        try (Connection conn = connect()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement approveStmt = conn.prepareStatement(approveSql);
+                 PreparedStatement deductStmt = conn.prepareStatement(deductSql)) {
+                approveStmt.setInt(1, requestId);
+                if (approveStmt.executeUpdate() == 0) {
+                    conn.rollback();
+                    System.err.println("Cannot approve: request " + requestId + " is not pending");
+                    return false;
+                }
+
+                deductStmt.setDouble(1, volume);
+                deductStmt.setDouble(2, volume);
+                if (deductStmt.executeUpdate() == 0) {
+                    conn.rollback();
+                    System.err.println("Cannot approve: requested volume " + volume + " exceeds current supply");
+                    return false;
+                }
 
-        if (volume > currentSupply) {
-            System.err.println("Cannot approve: requested volume " + volume + " exceeds current supply " + currentSupply);
+                addApprovedUsage(conn, requestId);
+                supplyLevel = readSupplyLevel(conn);
+                recordSupplyChange(conn, supplyLevel, -volume, "Request #" + requestId + " approved");
+                approved = findRequest(conn, requestId);
+                ConnectionPool.commit(conn);
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            System.err.println("Approve request error: " + e.getMessage());
             return false;
         }
 
-        boolean statusOk = updateRequestStatus(requestId, "Approved");
-        if (!statusOk) {
-            return false;
+        // Listeners run once the write lock is released
+        if (approved != null) {
+            fireApproved(requestId, approved.getUserId(), approved.getVolume(), approved.getDate(), supplyLevel);
+        }
+        System.out.println("Request " + requestId + " approved. Supply deducted: " + volume + " L.");
+        return true;
+    }
+
+    private static Request findRequest(Connection conn, int requestId) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement("SELECT * FROM requests WHERE id = ?")) {
+            pstmt.setInt(1, requestId);
+            ResultSet rs = pstmt.executeQuery();
+            return rs.next() ? mapRowToRequest(rs) : null;
+        }
+    }
+
+    /**
+     * Receives approved usage after the approving transaction has committed, so in-memory
+     * analytics can follow approvals without rescanning the requests table.
+     */
+    public interface ApprovedUsageListener {
+        // supplyLevel is the reservoir level committed with the approval
+        void onApproved(int requestId, int userId, double volume, LocalDateTime date, double supplyLevel);
+
+        // An approved request left 'Approved'; the values are the ones it was approved with
+        default void onReversed(int requestId, int userId, double volume, LocalDateTime date) { }
+    }
+
+    // Receives rows from forEachApprovedUsage()
+    public interface ApprovedUsageSink {
+        void accept(int requestId, int userId, double volume, LocalDateTime date);
+    }
+
+    // Receives the reservoir level set by updateSupplyLevel(), after it has committed
+    public interface SupplyLevelListener {
+        void onSupplyLevelChanged(double level);
+    }
+
+    private static final List<SupplyLevelListener> supplyListeners = new CopyOnWriteArrayList<>();
+
+    public static void addSupplyLevelListener(SupplyLevelListener listener) {
+        supplyListeners.add(listener);
+    }
+
+    public static void removeSupplyLevelListener(SupplyLevelListener listener) {
+        supplyListeners.remove(listener);
+    }
+
+    private static void fireSupplyLevelChanged(double level) {
+        for (SupplyLevelListener listener : supplyListeners) {
+            try {
+                listener.onSupplyLevelChanged(level);
+            } catch (RuntimeException e) {
+                System.err.println("Supply level listener failed: " + e.getMessage());
+            }
+        }
+    }
+
+    private static final List<ApprovedUsageListener> usageListeners = new CopyOnWriteArrayList<>();
+
+    public static void addApprovedUsageListener(ApprovedUsageListener listener) {
+        usageListeners.add(listener);
+    }
+
+    public static void removeApprovedUsageListener(ApprovedUsageListener listener) {
+        usageListeners.remove(listener);
+    }
+
+    private static void fireApproved(int requestId, int userId, double volume, LocalDateTime date, double supplyLevel) {
+        for (ApprovedUsageListener listener : usageListeners) {
+            try {
+                listener.onApproved(requestId, userId, volume, date, supplyLevel);
+            } catch (RuntimeException e) {
+                System.err.println("Approved usage listener failed: " + e.getMessage());
+            }
+        }
+    }
+
+    private static void fireReversed(int requestId, int userId, double volume, LocalDateTime date) {
+        for (ApprovedUsageListener listener : usageListeners) {
+            try {
+                listener.onReversed(requestId, userId, volume, date);
+            } catch (RuntimeException e) {
+                System.err.println("Approved usage listener failed: " + e.getMessage());
+            }
         }
+    }
+
+    // Streams every approved request (id, user, volume, date) to the sink without building Request objects
+    public static boolean forEachApprovedUsage(ApprovedUsageSink sink) {
+        // Nearly every row is approved, so a plain table scan beats walking idx_requests_status_date.
+        return streamApprovedUsage("SELECT id, user_id, volume, CAST(strftime('%s', date) AS INTEGER) AS epoch_second, date " +
+                "FROM requests NOT INDEXED WHERE status = 'Approved' AND user_id IS NOT NULL AND date IS NOT NULL", null, sink);
+    }
+
+    // Same rows, limited to requests dated on or after the given day; a range on idx_requests_status_date
+    public static boolean forEachApprovedUsageSince(LocalDate from, ApprovedUsageSink sink) {
+        return streamApprovedUsage("SELECT id, user_id, volume, CAST(strftime('%s', date) AS INTEGER) AS epoch_second, date " +
+                "FROM requests WHERE status = 'Approved' AND date >= ? AND user_id IS NOT NULL", from.toString(), sink);
+    }
 
-        double newSupply = currentSupply - volume;
-        boolean supplyOk = updateSupplyLevel(newSupply);
-        if (!supplyOk) {
-            updateRequestStatus(requestId, "Pending");
+    private static boolean streamApprovedUsage(String sql, String from, ApprovedUsageSink sink) {
+        // SQLite reads both stored date formats; strftime is much cheaper than parsing each string in Java.
+        try (Connection conn = connect();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            if (from != null) {
+                pstmt.setString(1, from);
+            }
+            pstmt.setFetchSize(10000);
+            ResultSet rs = pstmt.executeQuery();
+            while (rs.next()) {
+                long epochSecond = rs.getLong(4);
+                LocalDateTime date = rs.wasNull() ? parseRequestDate(rs.getString(5))
+                        : LocalDateTime.ofEpochSecond(epochSecond, 0, ZoneOffset.UTC);
+                if (date != null) {
+                    sink.accept(rs.getInt(1), rs.getInt(2), rs.getDouble(3), date);
+                }
+            }
+            return true;
+        } catch (SQLException e) {
+            System.err.println("Failed to read approved usage: " + e.getMessage());
             return false;
         }
+    }
 
-        System.out.println("Request " + requestId + " approved. Supply deducted: " + volume + " L. New level: " + newSupply + " L");
-        return true;
+    // Count a newly approved request in its owner's usage summary
+    private static void addApprovedUsage(Connection conn, int requestId) throws SQLException {
+        String sql = "INSERT INTO user_usage_summary (user_id, unbilled_volume, approved_count, last_request_date) " +
+                "SELECT user_id, volume, 1, date FROM requests WHERE id = ? AND user_id IS NOT NULL " +
+                "ON CONFLICT(user_id) DO UPDATE SET " +
+                "unbilled_volume = unbilled_volume + excluded.unbilled_volume, " +
+                "approved_count = approved_count + 1, " +
+                "last_request_date = MAX(COALESCE(last_request_date, ''), COALESCE(excluded.last_request_date, ''))";
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setInt(1, requestId);
+            pstmt.executeUpdate();
+        }
+
+        String dailySql = "INSERT INTO daily_usage (usage_date, user_id, volume, request_count) " +
+                "SELECT substr(date, 1, 10), user_id, volume, 1 FROM requests " +
+                "WHERE id = ? AND date IS NOT NULL AND user_id IS NOT NULL " +
+                "ON CONFLICT(usage_date, user_id) DO UPDATE SET " +
+                "volume = volume + excluded.volume, request_count = request_count + 1";
+        try (PreparedStatement pstmt = conn.prepareStatement(dailySql)) {
+            pstmt.setInt(1, requestId);
+            pstmt.executeUpdate();
+        }
+
+        addToUsageSketch(conn, requestId);
+    }
+
+    // Folds one approved request into its day's sketches; read and write share the approving transaction
+    private static void addToUsageSketch(Connection conn, int requestId) throws SQLException {
+        String day;
+        double volume;
+        int userId;
+        boolean hasUser;
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "SELECT substr(date, 1, 10) AS day, user_id, volume FROM requests WHERE id = ? AND date IS NOT NULL")) {
+            pstmt.setInt(1, requestId);
+            ResultSet rs = pstmt.executeQuery();
+            if (!rs.next()) {
+                return;
+            }
+            day = rs.getString("day");
+            volume = rs.getDouble("volume");
+            userId = rs.getInt("user_id");
+            hasUser = !rs.wasNull();
+        }
+
+        QuantileSketch volumes = new QuantileSketch();
+        DistinctCounter users = new DistinctCounter();
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "SELECT volume_sketch, user_counter FROM usage_sketches WHERE usage_date = ?")) {
+            pstmt.setString(1, day);
+            ResultSet rs = pstmt.executeQuery();
+            if (rs.next()) {
+                volumes = QuantileSketch.fromBytes(rs.getBytes("volume_sketch"));
+                users = DistinctCounter.fromBytes(rs.getBytes("user_counter"));
+            }
+        }
+        volumes.add(volume);
+        if (hasUser) {
+            users.add(userId);
+        }
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "INSERT OR REPLACE INTO usage_sketches (usage_date, volume_sketch, user_counter) VALUES (?, ?, ?)")) {
+            pstmt.setString(1, day);
+            pstmt.setBytes(2, volumes.toBytes());
+            pstmt.setBytes(3, users.toBytes());
+            pstmt.executeUpdate();
+        }
+    }
+
+    private static void refreshUsageSummaryForRequest(Connection conn, int requestId) throws SQLException {
+        String sql = "INSERT OR REPLACE INTO user_usage_summary " +
+                "SELECT ?, COALESCE(SUM(CASE WHEN billed = 0 THEN volume END), 0), COUNT(*), MAX(date) " +
+                "FROM requests WHERE status = 'Approved' AND user_id = ?";
+        int userId;
+        String day;
+        try (PreparedStatement pstmt = conn.prepareStatement("SELECT user_id, substr(date, 1, 10) AS day FROM requests WHERE id = ?")) {
+            pstmt.setInt(1, requestId);
+            ResultSet rs = pstmt.executeQuery();
+            if (!rs.next() || rs.getObject("user_id") == null) {
+                return;
+            }
+            userId = rs.getInt("user_id");
+            day = rs.getString("day");
+        }
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setInt(1, userId);
+            pstmt.setInt(2, userId);
+            pstmt.executeUpdate();
+        }
+        if (day != null) {
+            refreshDailyUsage(conn, userId, day);
+            // Sketches cannot forget a value, so the day is recomputed from its requests
+            rebuildUsageSketches(conn, day);
+        }
+    }
+
+    // Day after a stored yyyy-MM-dd prefix, or null when the stored text is not a date
+    private static String nextDay(String day) {
+        try {
+            return LocalDate.parse(day).plusDays(1).toString();
+        } catch (DateTimeParseException e) {
+            System.err.println("Request date does not start with a day: " + day);
+            return null;
+        }
+    }
+
+    // Requests of one rollup day: a date range that stays on the index, or for a malformed day
+    // the same prefix the rollups were grouped by
+    private static String dayFilter(String nextDay) {
+        return nextDay != null ? "date >= ? AND date < ?" : "substr(date, 1, 10) = ?";
+    }
+
+    // Recount one user's day; the date range keeps the lookup on idx_requests_user_date
+    private static void refreshDailyUsage(Connection conn, int userId, String day) throws SQLException {
+        String nextDay = nextDay(day);
+        try (PreparedStatement pstmt = conn.prepareStatement("DELETE FROM daily_usage WHERE usage_date = ? AND user_id = ?")) {
+            pstmt.setString(1, day);
+            pstmt.setInt(2, userId);
+            pstmt.executeUpdate();
+        }
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "INSERT INTO daily_usage (usage_date, user_id, volume, request_count) " +
+                "SELECT ?, user_id, SUM(volume), COUNT(*) FROM requests " +
+                "WHERE user_id = ? AND " + dayFilter(nextDay) + " AND status = 'Approved' GROUP BY user_id")) {
+            pstmt.setString(1, day);
+            pstmt.setInt(2, userId);
+            pstmt.setString(3, day);
+            if (nextDay != null) {
+                pstmt.setString(4, nextDay);
+            }
+            pstmt.executeUpdate();
+        }
+    }
+
+    // Approved volume and count for the dashboard periods, read from the daily_usage rollup.
+    // Serves the analytics screen while ColumnarUsageStore is still loading.
+    public static UsageTotals getUsageTotals(LocalDate today) {
+        String sql = "SELECT COALESCE(SUM(volume), 0) AS total_volume, COALESCE(SUM(request_count), 0) AS total_count, " +
+                "COALESCE(SUM(CASE WHEN usage_date = ? THEN volume END), 0) AS daily, " +
+                "COALESCE(SUM(CASE WHEN usage_date > ? THEN volume END), 0) AS weekly, " +
+                "COALESCE(SUM(CASE WHEN usage_date >= ? AND usage_date < ? THEN volume END), 0) AS monthly, " +
+                "COALESCE(SUM(CASE WHEN usage_date >= ? AND usage_date < ? THEN volume END), 0) AS yearly " +
+                "FROM daily_usage";
+        LocalDate monthStart = today.withDayOfMonth(1);
+        LocalDate yearStart = today.withDayOfYear(1);
+
+        try (Connection conn = connect();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setString(1, today.toString());
+            pstmt.setString(2, today.minusWeeks(1).toString());
+            pstmt.setString(3, monthStart.toString());
+            pstmt.setString(4, monthStart.plusMonths(1).toString());
+            pstmt.setString(5, yearStart.toString());
+            pstmt.setString(6, yearStart.plusYears(1).toString());
+            ResultSet rs = pstmt.executeQuery();
+            if (rs.next()) {
+                return new UsageTotals(rs.getDouble("total_volume"), rs.getInt("total_count"),
+                        rs.getDouble("daily"), rs.getDouble("weekly"), rs.getDouble("monthly"), rs.getDouble("yearly"));
+            }
+        } catch (SQLException e) {
+            System.err.println("Failed to get usage totals: " + e.getMessage());
+        }
+        return new UsageTotals(0, 0, 0, 0, 0, 0);
+    }
+
+    // Users with the most approved requests since the given day (null for all time); the
+    // rollup-backed counterpart of ColumnarUsageStore's ranking, used while the store loads
+    public static List<UserUsage> getTopUsersByRequestCount(int limit, LocalDate since) {
+        return getTopUsers("request_count DESC, volume DESC", limit, since);
+    }
+
+    // Users with the largest approved volume since the given day (null for all time)
+    public static List<UserUsage> getTopUsersByVolume(int limit, LocalDate since) {
+        return getTopUsers("volume DESC, request_count DESC", limit, since);
+    }
+
+    // Volume percentiles and distinct users for days in [from, to), merged from the daily sketches
+    public static VolumeStats getVolumeStats(LocalDate from, LocalDate to) {
+        String sql = "SELECT volume_sketch, user_counter FROM usage_sketches WHERE usage_date >= ? AND usage_date < ?";
+        QuantileSketch volumes = new QuantileSketch();
+        DistinctCounter users = new DistinctCounter();
+        try (Connection conn = connect();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setString(1, from.toString());
+            pstmt.setString(2, to.toString());
+            ResultSet rs = pstmt.executeQuery();
+            while (rs.next()) {
+                volumes.merge(QuantileSketch.fromBytes(rs.getBytes("volume_sketch")));
+                users.merge(DistinctCounter.fromBytes(rs.getBytes("user_counter")));
+            }
+        } catch (SQLException | IllegalArgumentException e) {
+            System.err.println("Failed to get volume statistics: " + e.getMessage());
+            return null;
+        }
+        return new VolumeStats(volumes.getCount(), volumes.getQuantile(0.50), volumes.getQuantile(0.95),
+                volumes.getQuantile(0.99), users.estimate());
+    }
+
+    // Aggregated from daily_usage, so only the top rows leave the database
+    private static List<UserUsage> getTopUsers(String orderBy, int limit, LocalDate since) {
+        String sql = "SELECT d.user_id, u.username, SUM(d.request_count) AS request_count, SUM(d.volume) AS volume " +
+                "FROM daily_usage d JOIN users u ON u.id = d.user_id " +
+                "WHERE d.usage_date >= ? GROUP BY d.user_id " +
+                "ORDER BY " + orderBy + ", u.username LIMIT ?";
+        List<UserUsage> users = new ArrayList<>();
+        try (Connection conn = connect();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setString(1, since != null ? since.toString() : "");
+            pstmt.setInt(2, limit);
+            ResultSet rs = pstmt.executeQuery();
+            while (rs.next()) {
+                users.add(new UserUsage(rs.getInt("user_id"), rs.getString("username"),
+                        rs.getInt("request_count"), rs.getDouble("volume")));
+            }
+        } catch (SQLException e) {
+            System.err.println("Failed to get top users: " + e.getMessage());
+        }
+        return users;
+    }
+
+    // Recompute user_usage_summary from the requests table; returns the number of rows written
+    public static int rebuildUsageSummary() {
+        try (Connection conn = connect()) {
+            conn.setAutoCommit(false);
+            try (Statement stmt = conn.createStatement()) {
+                stmt.executeUpdate("DELETE FROM user_usage_summary");
+                int rows = stmt.executeUpdate("INSERT INTO user_usage_summary " + USAGE_SUMMARY_SELECT + " GROUP BY user_id");
+                ConnectionPool.commit(conn);
+                System.out.println("Usage summary rebuilt: " + rows + " users");
+                return rows;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            System.err.println("Failed to rebuild usage summary: " + e.getMessage());
+        }
+        return -1;
+    }
+
+    // Compare user_usage_summary with a fresh recount; returns a line per mismatching user
+    public static List<String> verifyUsageSummary() {
+        String sql = "WITH actual AS (" + USAGE_SUMMARY_SELECT + " GROUP BY user_id) " +
+                "SELECT COALESCE(a.user_id, s.user_id) AS uid, " +
+                "a.unbilled_volume AS actual_volume, s.unbilled_volume AS stored_volume, " +
+                "a.approved_count AS actual_count, s.approved_count AS stored_count " +
+                "FROM actual a FULL OUTER JOIN user_usage_summary s ON s.user_id = a.user_id";
+        List<String> mismatches = new ArrayList<>();
+        try (Connection conn = connect();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
+            while (rs.next()) {
+                double actualVolume = rs.getDouble("actual_volume");
+                double storedVolume = rs.getDouble("stored_volume");
+                int actualCount = rs.getInt("actual_count");
+                int storedCount = rs.getInt("stored_count");
+                if (Math.abs(actualVolume - storedVolume) > 1e-6 || actualCount != storedCount) {
+                    mismatches.add(String.format("user %d: unbilled %.3f (stored %.3f), approved %d (stored %d)",
+                            rs.getInt("uid"), actualVolume, storedVolume, actualCount, storedCount));
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("Failed to verify usage summary: " + e.getMessage());
+            mismatches.add("verification failed: " + e.getMessage());
+        }
+        return mismatches;
     }
 
     // ==================== BILLING & PAYMENT METHODS ====================
 
-    public static void initializeBillingTables() {
+    private static void initializeBillingTables(Connection conn) throws SQLException {
         String createBills = "CREATE TABLE IF NOT EXISTS bills (" +
                 "id INTEGER PRIMARY KEY AUTOINCREMENT," +
                 "user_id INTEGER," +
@@ -527,35 +1524,28 @@ public class DatabaseHandler {
                 "FOREIGN KEY(user_id) REFERENCES users(id)" +
                 ");";
 
-        try (Connection conn = connect();
-             Statement stmt = conn.createStatement()) {
+        try (Statement stmt = conn.createStatement()) {
             stmt.execute(createBills);
             stmt.execute(createPayments);
-            System.out.println("Billing tables initialized.");
-        } catch (SQLException e) {
-            System.err.println("Failed to initialize billing tables: " + e.getMessage());
         }
     }
 
     // Generate bill for a user based on approved requests that haven't been billed yet
     public static Bill generateBillForUser(int userId, String billingPeriod) {
-        initializeBillingTables();
-        ensureBilledColumnExists();
-
         Connection conn = null;
         try {
             conn = connect();
             conn.setAutoCommit(false); // Start transaction
 
             // Get total approved volume for unbilled requests
-            String sql = "SELECT COALESCE(SUM(volume), 0) as total_volume FROM requests WHERE user_id = ? AND status = 'Approved' AND (billed IS NULL OR billed = 0)";
+            String sql = "SELECT unbilled_volume FROM user_usage_summary WHERE user_id = ?";
 
             double totalVolume = 0;
             try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
                 pstmt.setInt(1, userId);
                 ResultSet rs = pstmt.executeQuery();
                 if (rs.next()) {
-                    totalVolume = rs.getDouble("total_volume");
+                    totalVolume = rs.getDouble("unbilled_volume");
                 }
             }
 
@@ -595,15 +1585,20 @@ public class DatabaseHandler {
             }
 
             // Mark all unbilled approved requests as billed (in same transaction)
-            String updateSql = "UPDATE requests SET billed = 1, bill_id = ? WHERE user_id = ? AND status = 'Approved' AND (billed IS NULL OR billed = 0)";
-            try (PreparedStatement updateStmt = conn.prepareStatement(updateSql)) {
+            try (PreparedStatement updateStmt = conn.prepareStatement(MARK_USER_REQUESTS_BILLED_SQL)) {
                 updateStmt.setInt(1, billId);
                 updateStmt.setInt(2, userId);
                 int updated = updateStmt.executeUpdate();
                 System.out.println("Marked " + updated + " requests as billed for user " + userId + " with bill_id " + billId);
             }
 
-            conn.commit(); // Commit transaction
+            try (PreparedStatement summaryStmt = conn.prepareStatement(
+                    "UPDATE user_usage_summary SET unbilled_volume = 0 WHERE user_id = ?")) {
+                summaryStmt.setInt(1, userId);
+                summaryStmt.executeUpdate();
+            }
+
+            ConnectionPool.commit(conn); // Commit transaction
 
             Bill bill = new Bill();
             bill.setId(billId);
@@ -640,56 +1635,329 @@ public class DatabaseHandler {
         return null;
     }
 
-    // Ensure the 'billed' and 'bill_id' columns exist in requests table
-    private static void ensureBilledColumnExists() {
-        try (Connection conn = connect();
-             Statement stmt = conn.createStatement()) {
+    // Progress of a bulk billing run, reported after every committed batch or chunk
+    public interface BillingProgressListener {
+        void onProgress(int billsCreated, int lastUserId, int maxUserId);
+    }
 
-            // Check existing columns
-            ResultSet rs = stmt.executeQuery("PRAGMA table_info('requests')");
-            boolean hasBilledColumn = false;
-            boolean hasBillIdColumn = false;
+    // Bill every user with unbilled approved usage for the period using set-based statements, without
+    // notifying the users. Users are processed in user_id chunks, one transaction each, and the run's
+    // checkpoint is committed with the chunk, so an interrupted run for the same period resumes where it
+    // stopped, from this method or from BillingEngine. Returns the number of bills created by the run,
+    // or -1 on failure.
+    public static int generateBillsForAllUsers(String billingPeriod, BillingProgressListener listener) {
+        DateTimeFormatter fmt = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+        LocalDateTime now = LocalDateTime.now();
+        String billingDate = now.format(fmt);
+        String dueDate = now.plusDays(30).format(fmt);
+
+        // Same formula as Bill.calculateBillAmount(), applied per user in SQL
+        String insertBillsSql = "INSERT INTO bills (user_id, total_volume, amount_due, amount_paid, status, billing_date, due_date, billing_period, run_id) " +
+                "SELECT user_id, SUM(volume), SUM(volume) * ? + ?, 0, 'Unpaid', ?, ?, ?, ? " +
+                "FROM requests INDEXED BY idx_requests_unbilled WHERE status = 'Approved' AND billed = 0 AND user_id BETWEEN ? AND ? " +
+                "GROUP BY user_id HAVING SUM(volume) > 0";
+        // Only the bills inserted by this chunk: a resumed BillingEngine run may already hold bills past its checkpoint
+        String markBilledSql = "UPDATE requests SET billed = 1, bill_id = b.id FROM bills b " +
+                "WHERE b.id > ? AND b.user_id = requests.user_id " +
+                "AND requests.status = 'Approved' AND requests.billed = 0 AND requests.user_id BETWEEN ? AND ?";
+        String clearSummarySql = "UPDATE user_usage_summary SET unbilled_volume = 0 WHERE user_id IN " +
+                "(SELECT user_id FROM bills WHERE id > ?)";
+        String checkpointSql = "UPDATE billing_runs SET last_user_id = MAX(last_user_id, ?), bills_created = bills_created + ? WHERE id = ?";
+        String nextUserSql = "SELECT MIN(user_id) FROM requests INDEXED BY idx_requests_unbilled " +
+                "WHERE status = 'Approved' AND billed = 0 AND user_id > ?";
+
+        try (Connection conn = connect()) {
+            BillingRun run = openBillingRun(conn, billingPeriod);
+            if (run == null) {
+                return -1;
+            }
+            int runId = run.getId();
+            int lastUserId = run.getLastUserId();
+            int billsCreated = run.getBillsCreated();
+
+            int maxUserId;
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery(UNBILLED_USER_RANGE_SQL)) {
+                maxUserId = rs.next() ? rs.getInt(2) : 0;
+            }
 
-            while (rs.next()) {
-                String colName = rs.getString("name");
-                if ("billed".equalsIgnoreCase(colName)) {
-                    hasBilledColumn = true;
-                }
-                if ("bill_id".equalsIgnoreCase(colName)) {
-                    hasBillIdColumn = true;
+            long start = System.nanoTime();
+            try (PreparedStatement nextUserStmt = conn.prepareStatement(nextUserSql);
+                 PreparedStatement insertStmt = conn.prepareStatement(insertBillsSql);
+                 PreparedStatement markStmt = conn.prepareStatement(markBilledSql);
+                 PreparedStatement clearSummaryStmt = conn.prepareStatement(clearSummarySql);
+                 PreparedStatement checkpointStmt = conn.prepareStatement(checkpointSql)) {
+                while (true) {
+                    // Skip gaps in the id space by starting each chunk at the next user with unbilled usage
+                    nextUserStmt.setInt(1, lastUserId);
+                    int fromUserId;
+                    try (ResultSet rs = nextUserStmt.executeQuery()) {
+                        fromUserId = rs.next() ? rs.getInt(1) : 0;
+                    }
+                    if (fromUserId == 0 || fromUserId > maxUserId) {
+                        break;
+                    }
+                    int toUserId = (int) Math.min((long) fromUserId + BILLING_CHUNK_USERS - 1, maxUserId);
+
+                    conn.setAutoCommit(false);
+                    int created;
+                    try {
+                        int lastBillId;
+                        try (Statement stmt = conn.createStatement();
+                             ResultSet rs = stmt.executeQuery("SELECT COALESCE(MAX(id), 0) FROM bills")) {
+                            lastBillId = rs.next() ? rs.getInt(1) : 0;
+                        }
+
+                        insertStmt.setDouble(1, Bill.RATE_PER_LITER);
+                        insertStmt.setDouble(2, Bill.SERVICE_CHARGE);
+                        insertStmt.setString(3, billingDate);
+                        insertStmt.setString(4, dueDate);
+                        insertStmt.setString(5, billingPeriod);
+                        insertStmt.setInt(6, runId);
+                        insertStmt.setInt(7, fromUserId);
+                        insertStmt.setInt(8, toUserId);
+                        created = insertStmt.executeUpdate();
+
+                        markStmt.setInt(1, lastBillId);
+                        markStmt.setInt(2, fromUserId);
+                        markStmt.setInt(3, toUserId);
+                        markStmt.executeUpdate();
+
+                        clearSummaryStmt.setInt(1, lastBillId);
+                        clearSummaryStmt.executeUpdate();
+
+                        checkpointStmt.setInt(1, toUserId);
+                        checkpointStmt.setInt(2, created);
+                        checkpointStmt.setInt(3, runId);
+                        checkpointStmt.executeUpdate();
+
+                        ConnectionPool.commit(conn);
+                    } catch (SQLException e) {
+                        conn.rollback();
+                        throw e;
+                    } finally {
+                        conn.setAutoCommit(true);
+                    }
+
+                    billsCreated += created;
+                    lastUserId = toUserId;
+                    if (listener != null) {
+                        listener.onProgress(billsCreated, lastUserId, maxUserId);
+                    }
                 }
             }
-            rs.close();
 
-            // Add missing columns one at a time
-            if (!hasBilledColumn) {
-                try {
-                    stmt.execute("ALTER TABLE requests ADD COLUMN billed INTEGER DEFAULT 0");
-                    System.out.println("Added 'billed' column to requests table");
-                } catch (SQLException e) {
-                    System.err.println("Could not add billed column: " + e.getMessage());
-                }
+            finishBillingRun(conn, runId);
+            System.out.printf("Billing run %d for %s completed: %d bills in %.1f ms%n",
+                    runId, billingPeriod, billsCreated, (System.nanoTime() - start) / 1_000_000.0);
+            return billsCreated;
+        } catch (SQLException e) {
+            System.err.println("Bulk billing failed (the run can be resumed): " + e.getMessage());
+            return -1;
+        }
+    }
+
+    // Latest unfinished run for the period, or a new one; null if the run could not be created
+    private static BillingRun openBillingRun(Connection conn, String billingPeriod) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "SELECT id, last_user_id, bills_created FROM billing_runs WHERE billing_period = ? AND status = 'Running' ORDER BY id DESC LIMIT 1")) {
+            pstmt.setString(1, billingPeriod);
+            ResultSet rs = pstmt.executeQuery();
+            if (rs.next()) {
+                BillingRun run = new BillingRun(rs.getInt("id"), billingPeriod, "Running",
+                        rs.getInt("last_user_id"), rs.getInt("bills_created"), true);
+                System.out.println("Resuming billing run " + run.getId() + " for " + billingPeriod + " after user " + run.getLastUserId());
+                return run;
             }
+        }
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "INSERT INTO billing_runs (billing_period, status, started_at) VALUES (?, 'Running', ?)",
+                Statement.RETURN_GENERATED_KEYS)) {
+            pstmt.setString(1, billingPeriod);
+            pstmt.setString(2, LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")));
+            pstmt.executeUpdate();
+            ResultSet keys = pstmt.getGeneratedKeys();
+            if (keys.next()) {
+                return new BillingRun(keys.getInt(1), billingPeriod, "Running", 0, 0, false);
+            }
+        }
+        return null;
+    }
 
-            if (!hasBillIdColumn) {
-                try {
-                    stmt.execute("ALTER TABLE requests ADD COLUMN bill_id INTEGER");
-                    System.out.println("Added 'bill_id' column to requests table");
+    private static void finishBillingRun(Connection conn, int runId) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "UPDATE billing_runs SET status = 'Completed', finished_at = ? WHERE id = ?")) {
+            pstmt.setString(1, LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")));
+            pstmt.setInt(2, runId);
+            pstmt.executeUpdate();
+        }
+    }
+
+    // Used by BillingEngine: start a run for the period, or resume the unfinished one
+    public static BillingRun startOrResumeBillingRun(String billingPeriod) {
+        try (Connection conn = connect()) {
+            return openBillingRun(conn, billingPeriod);
+        } catch (SQLException e) {
+            System.err.println("Failed to start billing run: " + e.getMessage());
+        }
+        return null;
+    }
+
+    public static boolean completeBillingRun(int runId) {
+        try (Connection conn = connect()) {
+            finishBillingRun(conn, runId);
+            return true;
+        } catch (SQLException e) {
+            System.err.println("Failed to complete billing run: " + e.getMessage());
+        }
+        return false;
+    }
+
+    static final String UNBILLED_USER_RANGE_SQL = "SELECT MIN(user_id), MAX(user_id) FROM requests INDEXED BY idx_requests_unbilled " +
+            "WHERE status = 'Approved' AND billed = 0";
+
+    // Smallest and largest user id with unbilled approved usage, or null when there is nothing to bill
+    public static int[] getUnbilledUserIdRange() {
+        // Both ends of the partial index, instead of walking every approved request in idx_requests_status_date
+        try (Connection conn = connect();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(UNBILLED_USER_RANGE_SQL)) {
+            if (rs.next() && rs.getObject(1) != null) {
+                return new int[]{rs.getInt(1), rs.getInt(2)};
+            }
+        } catch (SQLException e) {
+            System.err.println("Failed to get unbilled user range: " + e.getMessage());
+        }
+        return null;
+    }
+
+    static final String UNBILLED_REQUESTS_IN_RANGE_SQL = "SELECT id, user_id, volume FROM requests INDEXED BY idx_requests_unbilled " +
+            "WHERE status = 'Approved' AND billed = 0 AND user_id BETWEEN ? AND ? ORDER BY user_id";
+
+    // Unbilled approved requests of the users in [fromUserId, toUserId], ordered by user
+    public static List<Request> getUnbilledRequestsInRange(int fromUserId, int toUserId) throws SQLException {
+        // Without statistics SQLite prefers idx_requests_status_date and sorts; the partial index is already in user order
+        List<Request> requests = new ArrayList<>();
+        try (Connection conn = connect();
+             PreparedStatement pstmt = conn.prepareStatement(UNBILLED_REQUESTS_IN_RANGE_SQL)) {
+            pstmt.setInt(1, fromUserId);
+            pstmt.setInt(2, toUserId);
+            ResultSet rs = pstmt.executeQuery();
+            while (rs.next()) {
+                requests.add(new Request(rs.getInt("id"), rs.getInt("user_id"), rs.getDouble("volume"), null, "Approved"));
+            }
+        }
+        return requests;
+    }
+
+    // Write a batch of computed bills for a run in one transaction: insert the bills, mark exactly
+    // the requests each bill covers, queue each user's bill notification and move the run checkpoint,
+    // so a bill is never committed without its notification. If any of those requests was billed
+    // in the meantime the whole batch is rolled back and an SQLException is thrown.
+    // Returns the number of notifications written.
+    public static int saveBillBatch(int runId, Map<Bill, List<Integer>> billedRequests, int checkpointUserId) throws SQLException {
+        String insertSql = "INSERT INTO bills (user_id, total_volume, amount_due, amount_paid, status, billing_date, due_date, billing_period, run_id) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+        String markSql = "UPDATE requests SET billed = 1, bill_id = ? WHERE id = ? AND billed = 0";
+        // Take the billed volume off the user's counter; float remainders are snapped to zero
+        String summarySql = "UPDATE user_usage_summary SET unbilled_volume = " +
+                "CASE WHEN unbilled_volume - ? < 1e-9 THEN 0 ELSE unbilled_volume - ? END WHERE user_id = ?";
+        String checkpointSql = "UPDATE billing_runs SET last_user_id = MAX(last_user_id, ?), bills_created = bills_created + ? WHERE id = ?";
+        DateTimeFormatter fmt = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+        List<Notification> notifications = new ArrayList<>(billedRequests.size());
+        notificationChanges.readLock().lock();
+        try {
+            try (Connection conn = connect()) {
+                conn.setAutoCommit(false);
+                try (PreparedStatement insertStmt = conn.prepareStatement(insertSql, Statement.RETURN_GENERATED_KEYS);
+                     PreparedStatement markStmt = conn.prepareStatement(markSql);
+                     PreparedStatement summaryStmt = conn.prepareStatement(summarySql);
+                     PreparedStatement notificationStmt = conn.prepareStatement(INSERT_NOTIFICATION_SQL);
+                     PreparedStatement checkpointStmt = conn.prepareStatement(checkpointSql)) {
+                    int expectedMarks = 0;
+                    for (Map.Entry<Bill, List<Integer>> entry : billedRequests.entrySet()) {
+                        Bill bill = entry.getKey();
+                        insertStmt.setInt(1, bill.getUserId());
+                        insertStmt.setDouble(2, bill.getTotalVolume());
+                        insertStmt.setDouble(3, bill.getAmountDue());
+                        insertStmt.setDouble(4, bill.getAmountPaid());
+                        insertStmt.setString(5, bill.getStatus());
+                        insertStmt.setString(6, bill.getBillingDate().format(fmt));
+                        insertStmt.setString(7, bill.getDueDate().format(fmt));
+                        insertStmt.setString(8, bill.getBillingPeriod());
+                        insertStmt.setInt(9, runId);
+                        insertStmt.executeUpdate();
+                        try (ResultSet keys = insertStmt.getGeneratedKeys()) {
+                            if (!keys.next()) {
+                                throw new SQLException("No id generated for bill of user " + bill.getUserId());
+                            }
+                            bill.setId(keys.getInt(1));
+                        }
+
+                        summaryStmt.setDouble(1, bill.getTotalVolume());
+                        summaryStmt.setDouble(2, bill.getTotalVolume());
+                        summaryStmt.setInt(3, bill.getUserId());
+                        summaryStmt.addBatch();
+
+                        for (int requestId : entry.getValue()) {
+                            markStmt.setInt(1, bill.getId());
+                            markStmt.setInt(2, requestId);
+                            markStmt.addBatch();
+                            expectedMarks++;
+                        }
+
+                        Notification notification = Notification.userBillGenerated(bill.getUserId(), bill.getId(),
+                                bill.getAmountDue(), bill.getBillingPeriod());
+                        bindNotification(notificationStmt, notification);
+                        notificationStmt.addBatch();
+                        notifications.add(notification);
+                    }
+
+                    int marked = 0;
+                    for (int count : markStmt.executeBatch()) {
+                        marked += count;
+                    }
+                    if (marked != expectedMarks) {
+                        throw new SQLException("Requests were billed concurrently (" + marked + " of " + expectedMarks + " still unbilled)");
+                    }
+                    summaryStmt.executeBatch();
+                    notificationStmt.executeBatch();
+
+                    checkpointStmt.setInt(1, checkpointUserId);
+                    checkpointStmt.setInt(2, billedRequests.size());
+                    checkpointStmt.setInt(3, runId);
+                    checkpointStmt.executeUpdate();
+
+                    ConnectionPool.commit(conn);
                 } catch (SQLException e) {
-                    System.err.println("Could not add bill_id column: " + e.getMessage());
+                    conn.rollback();
+                    for (Bill bill : billedRequests.keySet()) {
+                        bill.setId(0);
+                    }
+                    throw e;
+                } finally {
+                    conn.setAutoCommit(true);
                 }
             }
-        } catch (SQLException e) {
-            System.err.println("Error ensuring billed column: " + e.getMessage());
+            fireUnreadAdded(notifications);
+            return notifications.size();
+        } finally {
+            notificationChanges.readLock().unlock();
         }
     }
 
+    // Ensure the 'billed' and 'bill_id' columns exist in requests table
+    private static void ensureBilledColumnExists(Connection conn) throws SQLException {
+        SchemaMigrator.addColumnIfMissing(conn, "requests", "billed", "INTEGER DEFAULT 0");
+        SchemaMigrator.addColumnIfMissing(conn, "requests", "bill_id", "INTEGER");
+    }
+
+    static final String MARK_USER_REQUESTS_BILLED_SQL = "UPDATE requests SET billed = 1, bill_id = ? WHERE user_id = ? AND status = 'Approved' AND billed = 0";
+
     // Mark requests as billed after generating a bill
     private static void markRequestsAsBilled(int userId, int billId) {
-        String sql = "UPDATE requests SET billed = 1, bill_id = ? WHERE user_id = ? AND status = 'Approved' AND (billed IS NULL OR billed = 0)";
-
         try (Connection conn = connect();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+             PreparedStatement pstmt = conn.prepareStatement(MARK_USER_REQUESTS_BILLED_SQL)) {
             pstmt.setInt(1, billId);
             pstmt.setInt(2, userId);
             int updated = pstmt.executeUpdate();
@@ -701,8 +1969,7 @@ public class DatabaseHandler {
 
     // Get unbilled usage summary for a user
     public static double getUnbilledUsageForUser(int userId) {
-        ensureBilledColumnExists();
-        String sql = "SELECT COALESCE(SUM(volume), 0) as total FROM requests WHERE user_id = ? AND status = 'Approved' AND (billed IS NULL OR billed = 0)";
+        String sql = "SELECT COALESCE(MAX(unbilled_volume), 0) as total FROM user_usage_summary WHERE user_id = ?";
 
         try (Connection conn = connect();
              PreparedStatement pstmt = conn.prepareStatement(sql)) {
@@ -722,7 +1989,6 @@ public class DatabaseHandler {
 
     // Get all bills
     public static List<Bill> getAllBills() {
-        initializeBillingTables();
         List<Bill> bills = new ArrayList<>();
         String sql = "SELECT b.*, u.username FROM bills b LEFT JOIN users u ON b.user_id = u.id ORDER BY b.billing_date DESC";
 
@@ -733,27 +1999,7 @@ public class DatabaseHandler {
             DateTimeFormatter fmt = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
 
             while (rs.next()) {
-                Bill bill = new Bill();
-                bill.setId(rs.getInt("id"));
-                bill.setUserId(rs.getInt("user_id"));
-                bill.setUsername(rs.getString("username"));
-                bill.setTotalVolume(rs.getDouble("total_volume"));
-                bill.setAmountDue(rs.getDouble("amount_due"));
-                bill.setAmountPaid(rs.getDouble("amount_paid"));
-                bill.setStatus(rs.getString("status"));
-                bill.setBillingPeriod(rs.getString("billing_period"));
-
-                String billingDateStr = rs.getString("billing_date");
-                String dueDateStr = rs.getString("due_date");
-
-                if (billingDateStr != null && !billingDateStr.isEmpty()) {
-                    bill.setBillingDate(LocalDateTime.parse(billingDateStr, fmt));
-                }
-                if (dueDateStr != null && !dueDateStr.isEmpty()) {
-                    bill.setDueDate(LocalDateTime.parse(dueDateStr, fmt));
-                }
-
-                bills.add(bill);
+                bills.add(mapRowToBill(rs, fmt));
             }
         } catch (SQLException e) {
             System.err.println("Failed to get bills: " + e.getMessage());
@@ -761,41 +2007,21 @@ public class DatabaseHandler {
         return bills;
     }
 
+    static final String BILLS_BY_USER_SQL = "SELECT b.*, u.username FROM bills b LEFT JOIN users u ON b.user_id = u.id WHERE b.user_id = ? ORDER BY b.billing_date DESC";
+
     // Get bills for a specific user
     public static List<Bill> getBillsByUser(int userId) {
-        initializeBillingTables();
         List<Bill> bills = new ArrayList<>();
-        String sql = "SELECT b.*, u.username FROM bills b LEFT JOIN users u ON b.user_id = u.id WHERE b.user_id = ? ORDER BY b.billing_date DESC";
 
         try (Connection conn = connect();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+             PreparedStatement pstmt = conn.prepareStatement(BILLS_BY_USER_SQL)) {
             pstmt.setInt(1, userId);
             ResultSet rs = pstmt.executeQuery();
 
             DateTimeFormatter fmt = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
 
             while (rs.next()) {
-                Bill bill = new Bill();
-                bill.setId(rs.getInt("id"));
-                bill.setUserId(rs.getInt("user_id"));
-                bill.setUsername(rs.getString("username"));
-                bill.setTotalVolume(rs.getDouble("total_volume"));
-                bill.setAmountDue(rs.getDouble("amount_due"));
-                bill.setAmountPaid(rs.getDouble("amount_paid"));
-                bill.setStatus(rs.getString("status"));
-                bill.setBillingPeriod(rs.getString("billing_period"));
-
-                String billingDateStr = rs.getString("billing_date");
-                String dueDateStr = rs.getString("due_date");
-
-                if (billingDateStr != null && !billingDateStr.isEmpty()) {
-                    bill.setBillingDate(LocalDateTime.parse(billingDateStr, fmt));
-                }
-                if (dueDateStr != null && !dueDateStr.isEmpty()) {
-                    bill.setDueDate(LocalDateTime.parse(dueDateStr, fmt));
-                }
-
-                bills.add(bill);
+                bills.add(mapRowToBill(rs, fmt));
             }
         } catch (SQLException e) {
             System.err.println("Failed to get user bills: " + e.getMessage());
@@ -805,32 +2031,71 @@ public class DatabaseHandler {
 
     // Process payment
     public static Payment processPayment(int billId, int userId, double amount, String paymentMethod) {
-        initializeBillingTables();
+        return processPayment(billId, userId, amount, paymentMethod, null);
+    }
+
+    // Record the payment and update the bill balance in one transaction. A retry with the same
+    // idempotency key returns the payment recorded by the first attempt, marked as a replay,
+    // instead of charging again.
+    public static Payment processPayment(int billId, int userId, double amount, String paymentMethod, String idempotencyKey) {
 
         String transactionId = Payment.generateTransactionId();
         LocalDateTime now = LocalDateTime.now();
         DateTimeFormatter fmt = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
 
-        String insertSql = "INSERT INTO payments (bill_id, user_id, amount, payment_method, transaction_id, payment_date, status) VALUES (?, ?, ?, ?, ?, ?, 'Success')";
+        String insertSql = "INSERT INTO payments (bill_id, user_id, amount, payment_method, transaction_id, payment_date, status, idempotency_key) VALUES (?, ?, ?, ?, ?, ?, 'Success', ?)";
+        String updateBillSql = "UPDATE bills SET amount_paid = amount_paid + ?, status = CASE WHEN amount_paid + ? >= amount_due THEN 'Paid' WHEN amount_paid + ? > 0 THEN 'Partial' ELSE 'Unpaid' END WHERE id = ?";
+
+        try (Connection conn = connect()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement insertStmt = conn.prepareStatement(insertSql, Statement.RETURN_GENERATED_KEYS);
+                 PreparedStatement billStmt = conn.prepareStatement(updateBillSql)) {
+
+                insertStmt.setInt(1, billId);
+                insertStmt.setInt(2, userId);
+                insertStmt.setDouble(3, amount);
+                insertStmt.setString(4, paymentMethod);
+                insertStmt.setString(5, transactionId);
+                insertStmt.setString(6, now.format(fmt));
+                insertStmt.setString(7, idempotencyKey);
+                try {
+                    insertStmt.executeUpdate();
+                } catch (SQLException e) {
+                    if (idempotencyKey == null || !isIdempotencyKeyConflict(e)) {
+                        throw e;
+                    }
+                    conn.rollback();
+                    System.out.println("Payment with idempotency key " + idempotencyKey + " already recorded; not charging again.");
+                    Payment recorded = findPaymentByIdempotencyKey(conn, idempotencyKey);
+                    if (recorded != null) {
+                        recorded.setReplay(true);
+                    }
+                    return recorded;
+                }
 
-        try (Connection conn = connect();
-             PreparedStatement pstmt = conn.prepareStatement(insertSql, Statement.RETURN_GENERATED_KEYS)) {
+                int paymentId;
+                try (ResultSet keys = insertStmt.getGeneratedKeys()) {
+                    if (!keys.next()) {
+                        conn.rollback();
+                        return null;
+                    }
+                    paymentId = keys.getInt(1);
+                }
 
-            pstmt.setInt(1, billId);
-            pstmt.setInt(2, userId);
-            pstmt.setDouble(3, amount);
-            pstmt.setString(4, paymentMethod);
-            pstmt.setString(5, transactionId);
-            pstmt.setString(6, now.format(fmt));
-            pstmt.executeUpdate();
+                billStmt.setDouble(1, amount);
+                billStmt.setDouble(2, amount);
+                billStmt.setDouble(3, amount);
+                billStmt.setInt(4, billId);
+                if (billStmt.executeUpdate() == 0) {
+                    conn.rollback();
+                    System.err.println("Failed to process payment: bill " + billId + " not found");
+                    return null;
+                }
 
-            ResultSet keys = pstmt.getGeneratedKeys();
-            if (keys.next()) {
-                // Update bill amount_paid and status
-                updateBillPayment(billId, amount);
+                ConnectionPool.commit(conn);
 
                 Payment payment = new Payment();
-                payment.setId(keys.getInt(1));
+                payment.setId(paymentId);
                 payment.setBillId(billId);
                 payment.setUserId(userId);
                 payment.setAmount(amount);
@@ -839,6 +2104,11 @@ public class DatabaseHandler {
                 payment.setPaymentDate(now);
                 payment.setStatus("Success");
                 return payment;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
             }
         } catch (SQLException e) {
             System.err.println("Failed to process payment: " + e.getMessage());
@@ -846,52 +2116,55 @@ public class DatabaseHandler {
         return null;
     }
 
-    // Update bill after payment
-    private static void updateBillPayment(int billId, double paymentAmount) {
-        String sql = "UPDATE bills SET amount_paid = amount_paid + ?, status = CASE WHEN amount_paid + ? >= amount_due THEN 'Paid' WHEN amount_paid + ? > 0 THEN 'Partial' ELSE 'Unpaid' END WHERE id = ?";
+    private static boolean isIdempotencyKeyConflict(SQLException e) {
+        String message = e.getMessage();
+        return message != null && message.contains("UNIQUE") && message.contains("idempotency_key");
+    }
 
-        try (Connection conn = connect();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setDouble(1, paymentAmount);
-            pstmt.setDouble(2, paymentAmount);
-            pstmt.setDouble(3, paymentAmount);
-            pstmt.setInt(4, billId);
-            pstmt.executeUpdate();
-        } catch (SQLException e) {
-            System.err.println("Failed to update bill payment: " + e.getMessage());
+    static final String PAYMENT_BY_IDEMPOTENCY_KEY_SQL = "SELECT p.*, u.username FROM payments p LEFT JOIN users u ON p.user_id = u.id WHERE p.idempotency_key = ?";
+
+    private static Payment findPaymentByIdempotencyKey(Connection conn, String idempotencyKey) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(PAYMENT_BY_IDEMPOTENCY_KEY_SQL)) {
+            pstmt.setString(1, idempotencyKey);
+            ResultSet rs = pstmt.executeQuery();
+            if (rs.next()) {
+                return mapRowToPayment(rs);
+            }
+        }
+        return null;
+    }
+
+    private static Payment mapRowToPayment(ResultSet rs) throws SQLException {
+        Payment payment = new Payment();
+        payment.setId(rs.getInt("id"));
+        payment.setBillId(rs.getInt("bill_id"));
+        payment.setUserId(rs.getInt("user_id"));
+        payment.setUsername(rs.getString("username"));
+        payment.setAmount(rs.getDouble("amount"));
+        payment.setPaymentMethod(rs.getString("payment_method"));
+        payment.setTransactionId(rs.getString("transaction_id"));
+        payment.setStatus(rs.getString("status"));
+
+        String dateStr = rs.getString("payment_date");
+        if (dateStr != null && !dateStr.isEmpty()) {
+            payment.setPaymentDate(LocalDateTime.parse(dateStr, DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")));
         }
+        return payment;
     }
 
+    static final String PAYMENTS_BY_USER_SQL = "SELECT p.*, u.username FROM payments p LEFT JOIN users u ON p.user_id = u.id WHERE p.user_id = ? ORDER BY p.payment_date DESC";
+
     // Get payment history for a user
     public static List<Payment> getPaymentsByUser(int userId) {
-        initializeBillingTables();
         List<Payment> payments = new ArrayList<>();
-        String sql = "SELECT p.*, u.username FROM payments p LEFT JOIN users u ON p.user_id = u.id WHERE p.user_id = ? ORDER BY p.payment_date DESC";
 
         try (Connection conn = connect();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+             PreparedStatement pstmt = conn.prepareStatement(PAYMENTS_BY_USER_SQL)) {
             pstmt.setInt(1, userId);
             ResultSet rs = pstmt.executeQuery();
 
-            DateTimeFormatter fmt = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
-
             while (rs.next()) {
-                Payment payment = new Payment();
-                payment.setId(rs.getInt("id"));
-                payment.setBillId(rs.getInt("bill_id"));
-                payment.setUserId(rs.getInt("user_id"));
-                payment.setUsername(rs.getString("username"));
-                payment.setAmount(rs.getDouble("amount"));
-                payment.setPaymentMethod(rs.getString("payment_method"));
-                payment.setTransactionId(rs.getString("transaction_id"));
-                payment.setStatus(rs.getString("status"));
-
-                String dateStr = rs.getString("payment_date");
-                if (dateStr != null && !dateStr.isEmpty()) {
-                    payment.setPaymentDate(LocalDateTime.parse(dateStr, fmt));
-                }
-
-                payments.add(payment);
+                payments.add(mapRowToPayment(rs));
             }
         } catch (SQLException e) {
             System.err.println("Failed to get user payments: " + e.getMessage());
@@ -901,7 +2174,6 @@ public class DatabaseHandler {
 
     // Get all payments (for admin)
     public static List<Payment> getAllPayments() {
-        initializeBillingTables();
         List<Payment> payments = new ArrayList<>();
         String sql = "SELECT p.*, u.username FROM payments p LEFT JOIN users u ON p.user_id = u.id ORDER BY p.payment_date DESC";
 
@@ -909,25 +2181,8 @@ public class DatabaseHandler {
              Statement stmt = conn.createStatement();
              ResultSet rs = stmt.executeQuery(sql)) {
 
-            DateTimeFormatter fmt = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
-
             while (rs.next()) {
-                Payment payment = new Payment();
-                payment.setId(rs.getInt("id"));
-                payment.setBillId(rs.getInt("bill_id"));
-                payment.setUserId(rs.getInt("user_id"));
-                payment.setUsername(rs.getString("username"));
-                payment.setAmount(rs.getDouble("amount"));
-                payment.setPaymentMethod(rs.getString("payment_method"));
-                payment.setTransactionId(rs.getString("transaction_id"));
-                payment.setStatus(rs.getString("status"));
-
-                String dateStr = rs.getString("payment_date");
-                if (dateStr != null && !dateStr.isEmpty()) {
-                    payment.setPaymentDate(LocalDateTime.parse(dateStr, fmt));
-                }
-
-                payments.add(payment);
+                payments.add(mapRowToPayment(rs));
             }
         } catch (SQLException e) {
             System.err.println("Failed to get all payments: " + e.getMessage());
@@ -937,7 +2192,6 @@ public class DatabaseHandler {
 
     // Get bill by ID
     public static Bill getBillById(int billId) {
-        initializeBillingTables();
         String sql = "SELECT b.*, u.username FROM bills b LEFT JOIN users u ON b.user_id = u.id WHERE b.id = ?";
 
         try (Connection conn = connect();
@@ -948,27 +2202,7 @@ public class DatabaseHandler {
             DateTimeFormatter fmt = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
 
             if (rs.next()) {
-                Bill bill = new Bill();
-                bill.setId(rs.getInt("id"));
-                bill.setUserId(rs.getInt("user_id"));
-                bill.setUsername(rs.getString("username"));
-                bill.setTotalVolume(rs.getDouble("total_volume"));
-                bill.setAmountDue(rs.getDouble("amount_due"));
-                bill.setAmountPaid(rs.getDouble("amount_paid"));
-                bill.setStatus(rs.getString("status"));
-                bill.setBillingPeriod(rs.getString("billing_period"));
-
-                String billingDateStr = rs.getString("billing_date");
-                String dueDateStr = rs.getString("due_date");
-
-                if (billingDateStr != null && !billingDateStr.isEmpty()) {
-                    bill.setBillingDate(LocalDateTime.parse(billingDateStr, fmt));
-                }
-                if (dueDateStr != null && !dueDateStr.isEmpty()) {
-                    bill.setDueDate(LocalDateTime.parse(dueDateStr, fmt));
-                }
-
-                return bill;
+                return mapRowToBill(rs, fmt);
             }
         } catch (SQLException e) {
             System.err.println("Failed to get bill: " + e.getMessage());
@@ -976,6 +2210,35 @@ public class DatabaseHandler {
         return null;
     }
 
+    // Get several bills by ID in a few IN (...) queries; unknown ids are simply missing from the map
+    public static Map<Integer, Bill> getBillsByIds(List<Integer> billIds) {
+        Map<Integer, Bill> bills = new HashMap<>();
+        DateTimeFormatter fmt = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+        try (Connection conn = connect()) {
+            for (int from = 0; from < billIds.size(); from += BILL_ID_CHUNK) {
+                List<Integer> chunk = billIds.subList(from, Math.min(billIds.size(), from + BILL_ID_CHUNK));
+                String sql = "SELECT b.*, u.username FROM bills b LEFT JOIN users u ON b.user_id = u.id WHERE b.id IN (" +
+                        String.join(",", Collections.nCopies(chunk.size(), "?")) + ")";
+                try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                    for (int i = 0; i < chunk.size(); i++) {
+                        pstmt.setInt(i + 1, chunk.get(i));
+                    }
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        while (rs.next()) {
+                            Bill bill = mapRowToBill(rs, fmt);
+                            bills.put(bill.getId(), bill);
+                        }
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("Failed to get bills: " + e.getMessage());
+            return null;
+        }
+        return bills;
+    }
+
     // Get all users (for billing)
     public static List<User> getAllUsers() {
         List<User> users = new ArrayList<>();
@@ -1003,7 +2266,6 @@ public class DatabaseHandler {
 
     // Get total revenue
     public static double getTotalRevenue() {
-        initializeBillingTables();
         String sql = "SELECT COALESCE(SUM(amount), 0) as total FROM payments WHERE status = 'Success'";
 
         try (Connection conn = connect();
@@ -1018,14 +2280,14 @@ public class DatabaseHandler {
         return 0.0;
     }
 
+    static final String PENDING_BILLS_COUNT_SQL = "SELECT COUNT(*) as count FROM bills WHERE status IN ('Unpaid', 'Partial')";
+
     // Get pending bills count
     public static int getPendingBillsCount() {
-        initializeBillingTables();
-        String sql = "SELECT COUNT(*) as count FROM bills WHERE status != 'Paid'";
 
         try (Connection conn = connect();
              Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery(sql)) {
+             ResultSet rs = stmt.executeQuery(PENDING_BILLS_COUNT_SQL)) {
             if (rs.next()) {
                 return rs.getInt("count");
             }
@@ -1037,7 +2299,7 @@ public class DatabaseHandler {
 
     // ==================== NOTIFICATION METHODS ====================
 
-    public static void initializeNotificationsTable() {
+    private static void initializeNotificationsTable(Connection conn) throws SQLException {
         String createNotifications = "CREATE TABLE IF NOT EXISTS notifications (" +
                 "id INTEGER PRIMARY KEY AUTOINCREMENT," +
                 "type TEXT," +
@@ -1051,72 +2313,200 @@ public class DatabaseHandler {
                 "created_at TEXT" +
                 ");";
 
-        try (Connection conn = connect();
-             Statement stmt = conn.createStatement()) {
+        try (Statement stmt = conn.createStatement()) {
             stmt.execute(createNotifications);
-            // Ensure target_user_id column exists for existing tables
-            ensureNotificationTargetUserColumn();
-        } catch (SQLException e) {
-            System.err.println("Failed to initialize notifications table: " + e.getMessage());
         }
+        // Ensure target_user_id column exists for existing tables
+        SchemaMigrator.addColumnIfMissing(conn, "notifications", "target_user_id", "INTEGER DEFAULT 0");
     }
 
-    // Ensure target_user_id column exists
-    private static void ensureNotificationTargetUserColumn() {
-        try (Connection conn = connect();
-             Statement stmt = conn.createStatement()) {
-            ResultSet rs = stmt.executeQuery("PRAGMA table_info('notifications')");
-            boolean hasTargetUserId = false;
-            while (rs.next()) {
-                if ("target_user_id".equalsIgnoreCase(rs.getString("name"))) {
-                    hasTargetUserId = true;
-                    break;
-                }
+    /**
+     * Receives unread-count changes after the notification write has committed, so badges can
+     * follow them without counting rows.
+     */
+    public interface NotificationListener {
+        void onUnreadChanged(int targetUserId, int unreadDelta, int urgentDelta);
+    }
+
+    private static final List<NotificationListener> notificationListeners = new CopyOnWriteArrayList<>();
+
+    public static void addNotificationListener(NotificationListener listener) {
+        notificationListeners.add(listener);
+    }
+
+    public static void removeNotificationListener(NotificationListener listener) {
+        notificationListeners.remove(listener);
+    }
+
+    private static boolean isUrgent(String priority) {
+        return "URGENT".equals(priority) || "HIGH".equals(priority);
+    }
+
+    // Held shared by every notification change from its write until its event has fired, and exclusively by
+    // withUnreadNotificationCounts(), so that read never sees a change whose event is still to come
+    private static final ReentrantReadWriteLock notificationChanges = new ReentrantReadWriteLock();
+
+    private static void fireUnreadChanged(int targetUserId, int unreadDelta, int urgentDelta) {
+        for (NotificationListener listener : notificationListeners) {
+            try {
+                listener.onUnreadChanged(targetUserId, unreadDelta, urgentDelta);
+            } catch (RuntimeException e) {
+                System.err.println("Notification listener failed: " + e.getMessage());
             }
-            rs.close();
-            if (!hasTargetUserId) {
-                stmt.execute("ALTER TABLE notifications ADD COLUMN target_user_id INTEGER DEFAULT 0");
-                System.out.println("Added 'target_user_id' column to notifications table");
+        }
+    }
+
+    // One event per target for a batch of new notifications
+    private static void fireUnreadAdded(List<Notification> added) {
+        Map<Integer, int[]> deltas = new HashMap<>();
+        for (Notification notification : added) {
+            if (!notification.isRead()) {
+                int[] delta = deltas.computeIfAbsent(notification.getTargetUserId(), id -> new int[2]);
+                delta[0]++;
+                delta[1] += isUrgent(notification.getPriority()) ? 1 : 0;
             }
-        } catch (SQLException e) {
-            System.err.println("Error ensuring target_user_id column: " + e.getMessage());
+        }
+        deltas.forEach((target, delta) -> fireUnreadChanged(target, delta[0], delta[1]));
+    }
+
+    // Reminders carry a type:related_id:target_user_id:day key so a repeat run inserts nothing.
+    // Existing reminders get the key too (first one per day wins) so the upgrade day is not reminded twice.
+    private static void addNotificationDedupeKey(Connection conn) throws SQLException {
+        SchemaMigrator.addColumnIfMissing(conn, "notifications", "dedupe_key", "TEXT");
+        try (Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("UPDATE notifications SET dedupe_key = type || ':' || related_id || ':' || " +
+                    "COALESCE(target_user_id, 0) || ':' || substr(created_at, 1, 10) " +
+                    "WHERE id IN (SELECT MIN(id) FROM notifications WHERE type = 'PAYMENT_DUE' AND created_at IS NOT NULL " +
+                    "GROUP BY related_id, COALESCE(target_user_id, 0), substr(created_at, 1, 10))");
+            stmt.execute("CREATE UNIQUE INDEX IF NOT EXISTS idx_notifications_dedupe_key ON notifications(dedupe_key) " +
+                    "WHERE dedupe_key IS NOT NULL");
         }
     }
 
+    private static final String INSERT_NOTIFICATION_SQL = "INSERT INTO notifications (type, title, message, related_id, " +
+            "related_username, target_user_id, is_read, priority, created_at, dedupe_key) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static void bindNotification(PreparedStatement pstmt, Notification notification) throws SQLException {
+        pstmt.setString(1, notification.getType());
+        pstmt.setString(2, notification.getTitle());
+        pstmt.setString(3, notification.getMessage());
+        pstmt.setInt(4, notification.getRelatedId());
+        pstmt.setString(5, notification.getRelatedUsername());
+        pstmt.setInt(6, notification.getTargetUserId());
+        pstmt.setInt(7, notification.isRead() ? 1 : 0);
+        pstmt.setString(8, notification.getPriority());
+        pstmt.setString(9, notification.getCreatedAt().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")));
+        pstmt.setString(10, notification.getDedupeKey());
+    }
+
     // Save a notification to the database
     public static Notification saveNotification(Notification notification) {
-        initializeNotificationsTable();
-        String sql = "INSERT INTO notifications (type, title, message, related_id, related_username, target_user_id, is_read, priority, created_at) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
-        DateTimeFormatter fmt = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
-
-        try (Connection conn = connect();
-             PreparedStatement pstmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
-
-            pstmt.setString(1, notification.getType());
-            pstmt.setString(2, notification.getTitle());
-            pstmt.setString(3, notification.getMessage());
-            pstmt.setInt(4, notification.getRelatedId());
-            pstmt.setString(5, notification.getRelatedUsername());
-            pstmt.setInt(6, notification.getTargetUserId());
-            pstmt.setInt(7, notification.isRead() ? 1 : 0);
-            pstmt.setString(8, notification.getPriority());
-            pstmt.setString(9, notification.getCreatedAt().format(fmt));
+        notificationChanges.readLock().lock();
+        try {
+            try (Connection conn = connect();
+                 PreparedStatement pstmt = conn.prepareStatement(INSERT_NOTIFICATION_SQL, Statement.RETURN_GENERATED_KEYS)) {
 
-            pstmt.executeUpdate();
-            ResultSet keys = pstmt.getGeneratedKeys();
-            if (keys.next()) {
-                notification.setId(keys.getInt(1));
+                bindNotification(pstmt, notification);
+                pstmt.executeUpdate();
+                ResultSet keys = pstmt.getGeneratedKeys();
+                if (keys.next()) {
+                    notification.setId(keys.getInt(1));
+                }
+            } catch (SQLException e) {
+                System.err.println("Failed to save notification: " + e.getMessage());
+                return null;
             }
+
+            // Listeners run once the connection is back in the pool
+            fireUnreadAdded(List.of(notification));
             return notification;
-        } catch (SQLException e) {
-            System.err.println("Failed to save notification: " + e.getMessage());
+        } finally {
+            notificationChanges.readLock().unlock();
+        }
+    }
+
+    // Insert many notifications in one transaction; ids are set on the passed objects
+    public static int saveNotifications(List<Notification> notifications) {
+        if (notifications.isEmpty()) {
+            return 0;
+        }
+        notificationChanges.readLock().lock();
+        try {
+            try (Connection conn = connect()) {
+                conn.setAutoCommit(false);
+                try (PreparedStatement pstmt = conn.prepareStatement(INSERT_NOTIFICATION_SQL, Statement.RETURN_GENERATED_KEYS)) {
+                    for (Notification notification : notifications) {
+                        bindNotification(pstmt, notification);
+                        pstmt.executeUpdate();
+                        try (ResultSet keys = pstmt.getGeneratedKeys()) {
+                            if (keys.next()) {
+                                notification.setId(keys.getInt(1));
+                            }
+                        }
+                    }
+                    ConnectionPool.commit(conn);
+                } catch (SQLException e) {
+                    conn.rollback();
+                    throw e;
+                } finally {
+                    conn.setAutoCommit(true);
+                }
+            } catch (SQLException e) {
+                System.err.println("Failed to save notifications: " + e.getMessage());
+                return 0;
+            }
+
+            fireUnreadAdded(notifications);
+            return notifications.size();
+        } finally {
+            notificationChanges.readLock().unlock();
+        }
+    }
+
+    // Batched INSERT OR IGNORE: notifications whose dedupe key already exists are skipped by the
+    // unique index instead of being looked up first. Returns how many were actually inserted, or -1.
+    public static int saveNotificationsIfAbsent(List<Notification> notifications) {
+        if (notifications.isEmpty()) {
+            return 0;
+        }
+        String sql = INSERT_NOTIFICATION_SQL.replace("INSERT INTO", "INSERT OR IGNORE INTO");
+        List<Notification> inserted = new ArrayList<>();
+        notificationChanges.readLock().lock();
+        try {
+            try (Connection conn = connect()) {
+                conn.setAutoCommit(false);
+                try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                    for (Notification notification : notifications) {
+                        bindNotification(pstmt, notification);
+                        pstmt.addBatch();
+                    }
+                    int[] counts = pstmt.executeBatch();
+                    for (int i = 0; i < counts.length; i++) {
+                        if (counts[i] > 0) {
+                            inserted.add(notifications.get(i));
+                        }
+                    }
+                    ConnectionPool.commit(conn);
+                } catch (SQLException e) {
+                    conn.rollback();
+                    throw e;
+                } finally {
+                    conn.setAutoCommit(true);
+                }
+            } catch (SQLException e) {
+                System.err.println("Failed to save notifications: " + e.getMessage());
+                return -1;
+            }
+
+            fireUnreadAdded(inserted);
+            return inserted.size();
+        } finally {
+            notificationChanges.readLock().unlock();
         }
-        return null;
     }
 
     // Get all notifications (for admin - target_user_id = 0)
     public static List<Notification> getAllNotifications() {
-        initializeNotificationsTable();
         List<Notification> notifications = new ArrayList<>();
         String sql = "SELECT * FROM notifications WHERE target_user_id = 0 ORDER BY created_at DESC";
 
@@ -1136,14 +2526,14 @@ public class DatabaseHandler {
         return notifications;
     }
 
+    static final String NOTIFICATIONS_BY_TARGET_SQL = "SELECT * FROM notifications WHERE target_user_id = ? ORDER BY created_at DESC";
+
     // Get notifications for a specific user
     public static List<Notification> getNotificationsByUser(int userId) {
-        initializeNotificationsTable();
         List<Notification> notifications = new ArrayList<>();
-        String sql = "SELECT * FROM notifications WHERE target_user_id = ? ORDER BY created_at DESC";
 
         try (Connection conn = connect();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+             PreparedStatement pstmt = conn.prepareStatement(NOTIFICATIONS_BY_TARGET_SQL)) {
             pstmt.setInt(1, userId);
             ResultSet rs = pstmt.executeQuery();
 
@@ -1161,7 +2551,6 @@ public class DatabaseHandler {
 
     // Get unread notifications (for admin)
     public static List<Notification> getUnreadNotifications() {
-        initializeNotificationsTable();
         List<Notification> notifications = new ArrayList<>();
         String sql = "SELECT * FROM notifications WHERE is_read = 0 AND target_user_id = 0 ORDER BY created_at DESC";
 
@@ -1181,14 +2570,14 @@ public class DatabaseHandler {
         return notifications;
     }
 
+    static final String UNREAD_NOTIFICATIONS_BY_TARGET_SQL = "SELECT * FROM notifications WHERE is_read = 0 AND target_user_id = ? ORDER BY created_at DESC";
+
     // Get unread notifications for a specific user
     public static List<Notification> getUnreadNotificationsByUser(int userId) {
-        initializeNotificationsTable();
         List<Notification> notifications = new ArrayList<>();
-        String sql = "SELECT * FROM notifications WHERE is_read = 0 AND target_user_id = ? ORDER BY created_at DESC";
 
         try (Connection conn = connect();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+             PreparedStatement pstmt = conn.prepareStatement(UNREAD_NOTIFICATIONS_BY_TARGET_SQL)) {
             pstmt.setInt(1, userId);
             ResultSet rs = pstmt.executeQuery();
 
@@ -1206,7 +2595,6 @@ public class DatabaseHandler {
 
     // Get unread notification count (for admin)
     public static int getUnreadNotificationCount() {
-        initializeNotificationsTable();
         String sql = "SELECT COUNT(*) as count FROM notifications WHERE is_read = 0 AND target_user_id = 0";
 
         try (Connection conn = connect();
@@ -1221,13 +2609,13 @@ public class DatabaseHandler {
         return 0;
     }
 
+    static final String UNREAD_COUNT_BY_TARGET_SQL = "SELECT COUNT(*) as count FROM notifications WHERE is_read = 0 AND target_user_id = ?";
+
     // Get unread notification count for a specific user
     public static int getUnreadNotificationCountByUser(int userId) {
-        initializeNotificationsTable();
-        String sql = "SELECT COUNT(*) as count FROM notifications WHERE is_read = 0 AND target_user_id = ?";
 
         try (Connection conn = connect();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+             PreparedStatement pstmt = conn.prepareStatement(UNREAD_COUNT_BY_TARGET_SQL)) {
             pstmt.setInt(1, userId);
             ResultSet rs = pstmt.executeQuery();
             if (rs.next()) {
@@ -1239,60 +2627,198 @@ public class DatabaseHandler {
         return 0;
     }
 
-    // Mark notification as read
-    public static boolean markNotificationAsRead(int notificationId) {
-        String sql = "UPDATE notifications SET is_read = 1 WHERE id = ?";
+    // Reads the unread counts and hands them to the consumer while no notification change is in flight:
+    // every event fired before the read is reflected in it, every later one is not. False on failure.
+    public static boolean withUnreadNotificationCounts(Consumer<Map<Integer, NotificationCounts>> consumer) {
+        notificationChanges.writeLock().lock();
+        try {
+            Map<Integer, NotificationCounts> counts = getUnreadNotificationCounts();
+            if (counts == null) {
+                return false;
+            }
+            consumer.accept(counts);
+            return true;
+        } finally {
+            notificationChanges.writeLock().unlock();
+        }
+    }
+
+    // Unread and HIGH/URGENT counts of every target with unread notifications, or null on failure
+    public static Map<Integer, NotificationCounts> getUnreadNotificationCounts() {
+        Map<Integer, NotificationCounts> counts = new HashMap<>();
+        String sql = "SELECT target_user_id, COUNT(*) AS unread, " +
+                "SUM(CASE WHEN priority IN ('HIGH', 'URGENT') THEN 1 ELSE 0 END) AS urgent " +
+                "FROM notifications WHERE is_read = 0 GROUP BY target_user_id";
 
         try (Connection conn = connect();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setInt(1, notificationId);
-            return pstmt.executeUpdate() > 0;
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
+            while (rs.next()) {
+                counts.put(rs.getInt("target_user_id"), new NotificationCounts(rs.getInt("unread"), rs.getInt("urgent")));
+            }
         } catch (SQLException e) {
-            System.err.println("Failed to mark notification as read: " + e.getMessage());
+            System.err.println("Failed to get unread notification counts: " + e.getMessage());
+            return null;
         }
-        return false;
+        return counts;
     }
 
-    // Mark all notifications as read
-    public static boolean markAllNotificationsAsRead() {
-        String sql = "UPDATE notifications SET is_read = 1 WHERE is_read = 0";
+    // Mark notification as read; false if it was already read or does not exist
+    public static boolean markNotificationAsRead(int notificationId) {
+        String sql = "UPDATE notifications SET is_read = 1 WHERE id = ? AND is_read = 0 RETURNING target_user_id, priority";
+        int targetUserId;
+        boolean urgent;
+        notificationChanges.readLock().lock();
+        try {
+            try (Connection conn = connect();
+                 PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                pstmt.setInt(1, notificationId);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    if (!rs.next()) {
+                        return false;
+                    }
+                    targetUserId = rs.getInt("target_user_id");
+                    urgent = isUrgent(rs.getString("priority"));
+                }
+            } catch (SQLException e) {
+                System.err.println("Failed to mark notification as read: " + e.getMessage());
+                return false;
+            }
 
-        try (Connection conn = connect();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.executeUpdate();
+            // The UPDATE commits when its statement is reset, so listeners wait until the connection is returned
+            fireUnreadChanged(targetUserId, -1, urgent ? -1 : 0);
             return true;
-        } catch (SQLException e) {
-            System.err.println("Failed to mark all notifications as read: " + e.getMessage());
+        } finally {
+            notificationChanges.readLock().unlock();
+        }
+    }
+
+    // Mark every unread notification of one target (0 = admins) as read in one transaction.
+    // Urgent ones go first so their row count doubles as the urgent delta. Returns the number marked, or -1.
+    public static int markAllNotificationsAsRead(int targetUserId) {
+        String urgentSql = "UPDATE notifications SET is_read = 1 WHERE target_user_id = ? AND is_read = 0 " +
+                "AND priority IN ('HIGH', 'URGENT')";
+        String restSql = "UPDATE notifications SET is_read = 1 WHERE target_user_id = ? AND is_read = 0";
+
+        int urgent;
+        int marked;
+        notificationChanges.readLock().lock();
+        try {
+            try (Connection conn = connect()) {
+                conn.setAutoCommit(false);
+                try (PreparedStatement urgentStmt = conn.prepareStatement(urgentSql);
+                     PreparedStatement restStmt = conn.prepareStatement(restSql)) {
+                    urgentStmt.setInt(1, targetUserId);
+                    urgent = urgentStmt.executeUpdate();
+                    restStmt.setInt(1, targetUserId);
+                    marked = urgent + restStmt.executeUpdate();
+                    ConnectionPool.commit(conn);
+                } catch (SQLException e) {
+                    conn.rollback();
+                    throw e;
+                } finally {
+                    conn.setAutoCommit(true);
+                }
+            } catch (SQLException e) {
+                System.err.println("Failed to mark all notifications as read: " + e.getMessage());
+                return -1;
+            }
+
+            if (marked > 0) {
+                fireUnreadChanged(targetUserId, -marked, -urgent);
+            }
+            return marked;
+        } finally {
+            notificationChanges.readLock().unlock();
         }
-        return false;
     }
 
     // Delete a notification
     public static boolean deleteNotification(int notificationId) {
-        String sql = "DELETE FROM notifications WHERE id = ?";
+        String sql = "DELETE FROM notifications WHERE id = ? RETURNING target_user_id, priority, is_read";
+        int targetUserId;
+        boolean urgent;
+        boolean wasUnread;
+        notificationChanges.readLock().lock();
+        try {
+            try (Connection conn = connect();
+                 PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                pstmt.setInt(1, notificationId);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    if (!rs.next()) {
+                        return false;
+                    }
+                    targetUserId = rs.getInt("target_user_id");
+                    urgent = isUrgent(rs.getString("priority"));
+                    wasUnread = rs.getInt("is_read") == 0;
+                }
+            } catch (SQLException e) {
+                System.err.println("Failed to delete notification: " + e.getMessage());
+                return false;
+            }
 
-        try (Connection conn = connect();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setInt(1, notificationId);
-            return pstmt.executeUpdate() > 0;
-        } catch (SQLException e) {
-            System.err.println("Failed to delete notification: " + e.getMessage());
+            // Like markNotificationAsRead, the DELETE has committed by the time listeners hear of it
+            if (wasUnread) {
+                fireUnreadChanged(targetUserId, -1, urgent ? -1 : 0);
+            }
+            return true;
+        } finally {
+            notificationChanges.readLock().unlock();
         }
-        return false;
     }
 
-    // Clear all notifications
-    public static boolean clearAllNotifications() {
-        String sql = "DELETE FROM notifications";
+    // Delete every notification of one target (0 = admins), NOTIFICATION_DELETE_CHUNK rows per
+    // transaction with a short pause in between, so a large clear never holds the write lock for long.
+    // Returns the number deleted, or -1.
+    public static int clearNotifications(int targetUserId) {
+        String sql = "DELETE FROM notifications WHERE id IN " +
+                "(SELECT id FROM notifications WHERE target_user_id = ? LIMIT ?) RETURNING is_read, priority";
+        int deleted = 0;
+        int unread = 0;
+        int urgent = 0;
+        boolean failed = false;
+        notificationChanges.readLock().lock();
+        try {
+            try (Connection conn = connect();
+                 PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                while (true) {
+                    int rows = 0;
+                    pstmt.setInt(1, targetUserId);
+                    pstmt.setInt(2, NOTIFICATION_DELETE_CHUNK);
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        while (rs.next()) {
+                            rows++;
+                            if (rs.getInt("is_read") == 0) {
+                                unread++;
+                                urgent += isUrgent(rs.getString("priority")) ? 1 : 0;
+                            }
+                        }
+                    }
+                    deleted += rows;
+                    if (rows < NOTIFICATION_DELETE_CHUNK) {
+                        break;
+                    }
+                    // Writers waiting in busy_timeout poll with growing sleeps; a short gap lets them in
+                    try {
+                        Thread.sleep(NOTIFICATION_DELETE_PAUSE_MS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new SQLException("Interrupted while clearing notifications", e);
+                    }
+                }
+            } catch (SQLException e) {
+                System.err.println("Failed to clear notifications: " + e.getMessage());
+                failed = true;
+            }
 
-        try (Connection conn = connect();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.executeUpdate();
-            return true;
-        } catch (SQLException e) {
-            System.err.println("Failed to clear notifications: " + e.getMessage());
+            // Chunks deleted before a failure stay deleted, so they are reported either way
+            if (unread > 0) {
+                fireUnreadChanged(targetUserId, -unread, -urgent);
+            }
+            return failed && deleted == 0 ? -1 : deleted;
+        } finally {
+            notificationChanges.readLock().unlock();
         }
-        return false;
     }
 
     // Helper method to map ResultSet row to Notification
@@ -1306,6 +2832,7 @@ public class DatabaseHandler {
         notification.setRelatedUsername(rs.getString("related_username"));
         notification.setRead(rs.getInt("is_read") == 1);
         notification.setPriority(rs.getString("priority"));
+        notification.setDedupeKey(rs.getString("dedupe_key"));
 
         // Try to get target_user_id (may not exist in older tables)
         try {
@@ -1325,51 +2852,71 @@ public class DatabaseHandler {
         return notification;
     }
 
-    // Get overdue and upcoming due bills for notifications
-    public static List<Bill> getBillsDueSoon(int daysThreshold) {
-        initializeBillingTables();
-        List<Bill> bills = new ArrayList<>();
-        String sql = "SELECT b.*, u.username FROM bills b LEFT JOIN users u ON b.user_id = u.id " +
-                     "WHERE b.status != 'Paid' ORDER BY b.due_date ASC";
+    static final String BILLS_DUE_SOON_SQL = "SELECT b.*, u.username FROM bills b INDEXED BY idx_bills_open_due_date LEFT JOIN users u ON b.user_id = u.id " +
+            "WHERE b.status IN ('Unpaid', 'Partial') AND b.due_date < ? ORDER BY b.due_date, b.id";
+
+    // Streams unpaid bills due within daysThreshold days (overdue included) in due-date order,
+    // without holding them all in memory
+    public static boolean forEachBillDueSoon(int daysThreshold, Consumer<Bill> sink) {
+        // Pinned to the partial index, which returns rows in due-date order; idx_bills_status_due_date would need a sort
+        DateTimeFormatter fmt = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
 
         try (Connection conn = connect();
-             Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery(sql)) {
+             PreparedStatement pstmt = conn.prepareStatement(BILLS_DUE_SOON_SQL)) {
+            pstmt.setString(1, dueSoonCutoff(daysThreshold).format(fmt));
+            pstmt.setFetchSize(1000);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    sink.accept(mapRowToBill(rs, fmt));
+                }
+            }
+            return true;
+        } catch (SQLException e) {
+            System.err.println("Failed to get bills due soon: " + e.getMessage());
+            return false;
+        }
+    }
 
-            DateTimeFormatter fmt = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
-            LocalDateTime now = LocalDateTime.now();
+    // Bills count as due within N days up to the end of the Nth calendar day from today
+    private static LocalDateTime dueSoonCutoff(int daysThreshold) {
+        return LocalDate.now().plusDays(daysThreshold + 1L).atStartOfDay();
+    }
+
+    private static Bill mapRowToBill(ResultSet rs, DateTimeFormatter fmt) throws SQLException {
+        Bill bill = new Bill();
+        bill.setId(rs.getInt("id"));
+        bill.setUserId(rs.getInt("user_id"));
+        bill.setUsername(rs.getString("username"));
+        bill.setTotalVolume(rs.getDouble("total_volume"));
+        bill.setAmountDue(rs.getDouble("amount_due"));
+        bill.setAmountPaid(rs.getDouble("amount_paid"));
+        bill.setStatus(rs.getString("status"));
+        bill.setBillingPeriod(rs.getString("billing_period"));
+
+        String billingDateStr = rs.getString("billing_date");
+        String dueDateStr = rs.getString("due_date");
+        if (billingDateStr != null && !billingDateStr.isEmpty()) {
+            bill.setBillingDate(LocalDateTime.parse(billingDateStr, fmt));
+        }
+        if (dueDateStr != null && !dueDateStr.isEmpty()) {
+            bill.setDueDate(LocalDateTime.parse(dueDateStr, fmt));
+        }
+        return bill;
+    }
 
+    // Every user's id and name, for in-memory lookups
+    public static Map<Integer, String> getUsernames() {
+        Map<Integer, String> usernames = new HashMap<>();
+        try (Connection conn = connect();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT id, username FROM users")) {
             while (rs.next()) {
-                String dueDateStr = rs.getString("due_date");
-                if (dueDateStr != null && !dueDateStr.isEmpty()) {
-                    LocalDateTime dueDate = LocalDateTime.parse(dueDateStr, fmt);
-                    long daysDiff = java.time.temporal.ChronoUnit.DAYS.between(now.toLocalDate(), dueDate.toLocalDate());
-
-                    // Include overdue bills (negative days) and bills within threshold
-                    if (daysDiff <= daysThreshold) {
-                        Bill bill = new Bill();
-                        bill.setId(rs.getInt("id"));
-                        bill.setUserId(rs.getInt("user_id"));
-                        bill.setUsername(rs.getString("username"));
-                        bill.setTotalVolume(rs.getDouble("total_volume"));
-                        bill.setAmountDue(rs.getDouble("amount_due"));
-                        bill.setAmountPaid(rs.getDouble("amount_paid"));
-                        bill.setStatus(rs.getString("status"));
-                        bill.setBillingPeriod(rs.getString("billing_period"));
-                        bill.setDueDate(dueDate);
-
-                        String billingDateStr = rs.getString("billing_date");
-                        if (billingDateStr != null && !billingDateStr.isEmpty()) {
-                            bill.setBillingDate(LocalDateTime.parse(billingDateStr, fmt));
-                        }
-                        bills.add(bill);
-                    }
-                }
+                usernames.put(rs.getInt("id"), rs.getString("username"));
             }
         } catch (SQLException e) {
-            System.err.println("Failed to get bills due soon: " + e.getMessage());
+            System.err.println("Failed to get usernames: " + e.getMessage());
         }
-        return bills;
+        return usernames;
     }
 
     // Get username by user ID
@@ -16,6 +16,7 @@ import javafx.event.ActionEvent;
 
 import java.time.format.DateTimeFormatter;
 import java.util.List;
+import java.util.UUID;
 
 public class UserBillingController {
     @FXML private Label totalDueLabel;
@@ -36,6 +37,10 @@ public class UserBillingController {
     private List<Payment> userPayments;
     private final DateTimeFormatter dtFormatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
 
+    // Idempotency key of the payment being submitted; kept across retries of the same form values
+    private String paymentKey;
+    private String paymentKeyFormState;
+
     @FXML
     public void initialize() {
         // Initialize payment methods
@@ -330,13 +335,19 @@ public class UserBillingController {
         int billId = extractBillId(billComboBox.getValue());
         String paymentMethod = paymentMethodCombo.getValue();
 
-        Payment payment = DatabaseHandler.processPayment(billId, currentUser.getId(), amount, paymentMethod);
+        Payment payment = DatabaseHandler.processPayment(billId, currentUser.getId(), amount, paymentMethod,
+                getPaymentKey(billId, amount, paymentMethod));
 
         if (payment != null) {
-            // Notify admin of payment received
-            NotificationService.notifyPaymentReceived(billId, currentUser.getUsername(), amount);
-            // Notify user of payment confirmation
-            NotificationService.notifyUserPaymentConfirmed(currentUser.getId(), billId, amount, payment.getTransactionId());
+            paymentKey = null;
+            paymentKeyFormState = null;
+            // A replayed key was notified when the payment was first recorded
+            if (!payment.isReplay()) {
+                // Notify admin of payment received
+                NotificationService.notifyPaymentReceived(billId, currentUser.getUsername(), amount);
+                // Notify user of payment confirmation
+                NotificationService.notifyUserPaymentConfirmed(currentUser.getId(), billId, amount, payment.getTransactionId());
+            }
 
             showMessage("Payment successful! Transaction: " + payment.getTransactionId(), false);
             paymentAmountField.clear();
@@ -348,6 +359,16 @@ public class UserBillingController {
         }
     }
 
+    // Double-clicks and retries of an unchanged form reuse the key, so the payment is recorded once
+    private String getPaymentKey(int billId, double amount, String paymentMethod) {
+        String formState = billId + "|" + amount + "|" + paymentMethod;
+        if (paymentKey == null || !formState.equals(paymentKeyFormState)) {
+            paymentKey = UUID.randomUUID().toString();
+            paymentKeyFormState = formState;
+        }
+        return paymentKey;
+    }
+
     private void showMessage(String message, boolean isError) {
         if (messageLabel != null) {
             messageLabel.setText(message);
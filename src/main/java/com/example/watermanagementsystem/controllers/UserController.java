@@ -1,12 +1,15 @@
 package com.example.watermanagementsystem.controllers;
 
 import com.example.watermanagementsystem.models.Notification;
+import com.example.watermanagementsystem.models.NotificationCounts;
 import com.example.watermanagementsystem.models.Request;
 import com.example.watermanagementsystem.models.User;
+import com.example.watermanagementsystem.utils.NotificationCounters;
 import com.example.watermanagementsystem.utils.NotificationService;
 import com.example.watermanagementsystem.utils.UIManager;
 import de.jensd.fx.glyphs.fontawesome.FontAwesomeIconView;
 import javafx.event.ActionEvent;
+import javafx.application.Platform;
 import javafx.fxml.FXML;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
@@ -36,11 +39,30 @@ public class UserController {
     @FXML private Label notificationBadge;
 
     private User currentUser;
+    // Subscribed while this dashboard is shown; dropped when navigation replaces it
+    private NotificationCounters.Listener countsListener;
     private final DateTimeFormatter dtFormatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
 
     @FXML
     public void initialize() {
         // No TableView initialization needed for card-based layout
+
+        // The signed-in user's notifications can change on any thread, e.g. the reminder scheduler
+        countsListener = (targetUserId, counts) -> Platform.runLater(() -> {
+            if (currentUser != null && currentUser.getId() == targetUserId) {
+                updateNotificationBadge();
+            }
+        });
+        // Navigation swaps the scene root, so a view is shown again from the UIManager cache or replaced by
+        // a fresh load; only listen while attached, or every replaced dashboard would stay subscribed
+        welcomeLabel.sceneProperty().addListener((obs, oldScene, newScene) -> {
+            if (newScene == null) {
+                NotificationCounters.getInstance().removeListener(countsListener);
+            } else if (oldScene == null) {
+                NotificationCounters.getInstance().addListener(countsListener);
+                updateNotificationBadge();
+            }
+        });
     }
 
     @FXML
@@ -173,7 +195,6 @@ public class UserController {
         try {
             loadUserRequests();
             if (currentUser != null) {
-                NotificationService.checkUserPaymentDueReminders(currentUser.getId());
                 updateNotificationBadge();
             }
             statusMessageLabel.setText("Requests refreshed.");
@@ -189,7 +210,7 @@ public class UserController {
         try {
             if (currentUser == null) return;
 
-            int unreadCount = DatabaseHandler.getUnreadNotificationCountByUser(currentUser.getId());
+            int unreadCount = NotificationCounters.getInstance().getCounts(currentUser.getId()).getUnread();
             if (notificationBadge != null) {
                 if (unreadCount > 0) {
                     notificationBadge.setText(String.valueOf(unreadCount > 99 ? "99+" : unreadCount));
@@ -241,16 +262,24 @@ public class UserController {
         markAllReadBtn.setStyle("-fx-background-color: #6c757d; -fx-text-fill: white; -fx-padding: 5 10; -fx-font-size: 11; -fx-cursor: hand;");
         markAllReadBtn.setOnAction(e -> {
             markAllUserNotificationsAsRead();
-            updateNotificationBadge();
             popup.close();
             showNotificationsPopup();
         });
 
-        header.getChildren().addAll(bellIcon, titleLabel, spacer, markAllReadBtn);
+        Button clearAllBtn = new Button("Clear All");
+        clearAllBtn.setStyle("-fx-background-color: #dc3545; -fx-text-fill: white; -fx-padding: 5 10; -fx-font-size: 11; -fx-cursor: hand;");
+        clearAllBtn.setOnAction(e -> {
+            DatabaseHandler.clearNotifications(currentUser.getId());
+            popup.close();
+            showNotificationsPopup();
+        });
+
+        header.getChildren().addAll(bellIcon, titleLabel, spacer, markAllReadBtn, clearAllBtn);
 
         // Summary
-        int unreadCount = DatabaseHandler.getUnreadNotificationCountByUser(currentUser.getId());
-        int urgentCount = NotificationService.getUserUrgentNotificationCount(currentUser.getId());
+        NotificationCounts counts = NotificationCounters.getInstance().getCounts(currentUser.getId());
+        int unreadCount = counts.getUnread();
+        int urgentCount = counts.getUrgent();
         String summaryText = unreadCount + " unread notification" + (unreadCount != 1 ? "s" : "");
         if (urgentCount > 0) {
             summaryText += " (" + urgentCount + " urgent)";
@@ -353,7 +382,6 @@ public class UserController {
         markReadBtn.setDisable(notification.isRead());
         markReadBtn.setOnAction(e -> {
             DatabaseHandler.markNotificationAsRead(notification.getId());
-            updateNotificationBadge();
             popup.close();
             showNotificationsPopup();
         });
@@ -362,7 +390,6 @@ public class UserController {
         deleteBtn.setStyle("-fx-background-color: #dc3545; -fx-text-fill: white; -fx-padding: 3 8; -fx-font-size: 10; -fx-cursor: hand;");
         deleteBtn.setOnAction(e -> {
             DatabaseHandler.deleteNotification(notification.getId());
-            updateNotificationBadge();
             popup.close();
             showNotificationsPopup();
         });
@@ -376,10 +403,7 @@ public class UserController {
     private void markAllUserNotificationsAsRead() {
         if (currentUser == null) return;
 
-        List<Notification> notifications = DatabaseHandler.getUnreadNotificationsByUser(currentUser.getId());
-        for (Notification n : notifications) {
-            DatabaseHandler.markNotificationAsRead(n.getId());
-        }
+        DatabaseHandler.markAllNotificationsAsRead(currentUser.getId());
     }
 
     public void setUser(User user) {
@@ -389,9 +413,8 @@ public class UserController {
         }
         loadUserRequests();
 
-        // Check for payment due reminders and update notification badge
+        // Reminders are generated by the background scheduler; just show the badge
         if (user != null) {
-            NotificationService.checkUserPaymentDueReminders(user.getId());
             updateNotificationBadge();
         }
     }
@@ -0,0 +1,39 @@
+package com.example.watermanagementsystem.models;
+
+public class BillingRun {
+    private int id;
+    private String billingPeriod;
+    private String status; // Running, Completed
+    private int lastUserId; // checkpoint: every user up to this id has been billed
+    private int billsCreated;
+    private boolean resumed;
+
+    public BillingRun() {}
+
+    public BillingRun(int id, String billingPeriod, String status, int lastUserId, int billsCreated, boolean resumed) {
+        this.id = id;
+        this.billingPeriod = billingPeriod;
+        this.status = status;
+        this.lastUserId = lastUserId;
+        this.billsCreated = billsCreated;
+        this.resumed = resumed;
+    }
+
+    public int getId() { return id; }
+    public void setId(int id) { this.id = id; }
+
+    public String getBillingPeriod() { return billingPeriod; }
+    public void setBillingPeriod(String billingPeriod) { this.billingPeriod = billingPeriod; }
+
+    public String getStatus() { return status; }
+    public void setStatus(String status) { this.status = status; }
+
+    public int getLastUserId() { return lastUserId; }
+    public void setLastUserId(int lastUserId) { this.lastUserId = lastUserId; }
+
+    public int getBillsCreated() { return billsCreated; }
+    public void setBillsCreated(int billsCreated) { this.billsCreated = billsCreated; }
+
+    public boolean isResumed() { return resumed; }
+    public void setResumed(boolean resumed) { this.resumed = resumed; }
+}
@@ -1,5 +1,6 @@
 package com.example.watermanagementsystem.models;
 
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 
 public class Notification {
@@ -13,6 +14,7 @@ public class Notification {
     private boolean read;
     private LocalDateTime createdAt;
     private String priority; // LOW, MEDIUM, HIGH, URGENT
+    private String dedupeKey; // null = never deduplicated
 
     public Notification() {
         this.read = false;
@@ -83,6 +85,16 @@ public class Notification {
         return notification;
     }
 
+    public static Notification supplyForecast(double level, double hoursToEmpty, String priority) {
+        Notification notification = new Notification();
+        notification.setType("SUPPLY_FORECAST");
+        notification.setTitle("URGENT".equals(priority) ? "Water Supply Running Out" : "Water Supply Getting Low");
+        notification.setMessage(String.format("At current demand the remaining %.1f L will last about %.0f hour(s)",
+            level, hoursToEmpty));
+        notification.setPriority(priority);
+        return notification;
+    }
+
     public static Notification paymentReceived(int billId, String username, double amount) {
         Notification notification = new Notification();
         notification.setType("PAYMENT_RECEIVED");
@@ -204,6 +216,14 @@ public class Notification {
     public String getPriority() { return priority; }
     public void setPriority(String priority) { this.priority = priority; }
 
+    public String getDedupeKey() { return dedupeKey; }
+    public void setDedupeKey(String dedupeKey) { this.dedupeKey = dedupeKey; }
+
+    // At most one notification per type, related item, recipient and day
+    public void setDailyDedupeKey(LocalDate day) {
+        this.dedupeKey = type + ":" + relatedId + ":" + targetUserId + ":" + day;
+    }
+
     public String getPriorityColor() {
         if (priority == null) return "#6c757d";
         switch (priority) {
@@ -0,0 +1,22 @@
+package com.example.watermanagementsystem.models;
+
+// Unread notifications of one target, and how many of those are HIGH or URGENT
+public class NotificationCounts {
+    public static final NotificationCounts NONE = new NotificationCounts(0, 0);
+
+    private final int unread;
+    private final int urgent;
+
+    public NotificationCounts(int unread, int urgent) {
+        this.unread = unread;
+        this.urgent = urgent;
+    }
+
+    public int getUnread() { return unread; }
+    public int getUrgent() { return urgent; }
+
+    // Counts after the given change, never below zero
+    public NotificationCounts plus(int unreadDelta, int urgentDelta) {
+        return new NotificationCounts(Math.max(0, unread + unreadDelta), Math.max(0, urgent + urgentDelta));
+    }
+}
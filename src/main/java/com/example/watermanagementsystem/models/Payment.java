@@ -1,5 +1,7 @@
 package com.example.watermanagementsystem.models;
 
+import com.example.watermanagementsystem.utils.TransactionIdGenerator;
+
 import java.time.LocalDateTime;
 
 public class Payment {
@@ -12,6 +14,7 @@ public class Payment {
     private String transactionId;
     private LocalDateTime paymentDate;
     private String status; // Success, Failed, Pending
+    private boolean replay; // Returned for a retried idempotency key; not stored
 
     public Payment() {}
 
@@ -27,9 +30,9 @@ public class Payment {
         this.status = status;
     }
 
-    // Generate transaction ID
+    // Generate transaction ID; unique even for payments recorded in the same millisecond
     public static String generateTransactionId() {
-        return "TXN" + System.currentTimeMillis();
+        return "TXN" + TransactionIdGenerator.getDefault().nextId();
     }
 
     // Getters and Setters
@@ -59,5 +62,8 @@ public class Payment {
 
     public String getStatus() { return status; }
     public void setStatus(String status) { this.status = status; }
+
+    public boolean isReplay() { return replay; }
+    public void setReplay(boolean replay) { this.replay = replay; }
 }
 
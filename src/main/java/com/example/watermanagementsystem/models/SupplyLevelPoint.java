@@ -0,0 +1,23 @@
+package com.example.watermanagementsystem.models;
+
+import java.time.LocalDateTime;
+
+// One point of the supply level history: a raw change, or an hourly/daily rollup bucket
+public class SupplyLevelPoint {
+    private final LocalDateTime time;
+    private final double level;
+    private final double minLevel;
+    private final double maxLevel;
+
+    public SupplyLevelPoint(LocalDateTime time, double level, double minLevel, double maxLevel) {
+        this.time = time;
+        this.level = level;
+        this.minLevel = minLevel;
+        this.maxLevel = maxLevel;
+    }
+
+    public LocalDateTime getTime() { return time; }
+    public double getLevel() { return level; }
+    public double getMinLevel() { return minLevel; }
+    public double getMaxLevel() { return maxLevel; }
+}
@@ -0,0 +1,28 @@
+package com.example.watermanagementsystem.models;
+
+// Approved water volume for the analytics dashboard periods
+public class UsageTotals {
+    private final double totalVolume;
+    private final int approvedCount;
+    private final double dailyVolume;
+    private final double weeklyVolume;
+    private final double monthlyVolume;
+    private final double yearlyVolume;
+
+    public UsageTotals(double totalVolume, int approvedCount, double dailyVolume, double weeklyVolume,
+                       double monthlyVolume, double yearlyVolume) {
+        this.totalVolume = totalVolume;
+        this.approvedCount = approvedCount;
+        this.dailyVolume = dailyVolume;
+        this.weeklyVolume = weeklyVolume;
+        this.monthlyVolume = monthlyVolume;
+        this.yearlyVolume = yearlyVolume;
+    }
+
+    public double getTotalVolume() { return totalVolume; }
+    public int getApprovedCount() { return approvedCount; }
+    public double getDailyVolume() { return dailyVolume; }
+    public double getWeeklyVolume() { return weeklyVolume; }
+    public double getMonthlyVolume() { return monthlyVolume; }
+    public double getYearlyVolume() { return yearlyVolume; }
+}
@@ -0,0 +1,21 @@
+package com.example.watermanagementsystem.models;
+
+// One leaderboard row: a user's approved requests and volume
+public class UserUsage {
+    private final int userId;
+    private final String username;
+    private final int requestCount;
+    private final double volume;
+
+    public UserUsage(int userId, String username, int requestCount, double volume) {
+        this.userId = userId;
+        this.username = username;
+        this.requestCount = requestCount;
+        this.volume = volume;
+    }
+
+    public int getUserId() { return userId; }
+    public String getUsername() { return username; }
+    public int getRequestCount() { return requestCount; }
+    public double getVolume() { return volume; }
+}
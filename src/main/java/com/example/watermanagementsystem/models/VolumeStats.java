@@ -0,0 +1,24 @@
+package com.example.watermanagementsystem.models;
+
+// Request volume percentiles and distinct active users over a range of days (sketch estimates)
+public class VolumeStats {
+    private final long requestCount;
+    private final double p50;
+    private final double p95;
+    private final double p99;
+    private final long distinctUsers;
+
+    public VolumeStats(long requestCount, double p50, double p95, double p99, long distinctUsers) {
+        this.requestCount = requestCount;
+        this.p50 = p50;
+        this.p95 = p95;
+        this.p99 = p99;
+        this.distinctUsers = distinctUsers;
+    }
+
+    public long getRequestCount() { return requestCount; }
+    public double getP50() { return p50; }
+    public double getP95() { return p95; }
+    public double getP99() { return p99; }
+    public long getDistinctUsers() { return distinctUsers; }
+}
@@ -0,0 +1,278 @@
+package com.example.watermanagementsystem.utils;
+
+import com.example.watermanagementsystem.controllers.DatabaseHandler;
+import com.example.watermanagementsystem.models.Bill;
+import com.example.watermanagementsystem.models.BillingRun;
+import com.example.watermanagementsystem.models.Request;
+
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parallel billing run. Users are split into user_id partitions that fork/join workers read and
+ * price with Bill.calculateBillAmount(); a single writer (the calling thread) stores the bills in
+ * batches, each committed together with its bill notifications and the run checkpoint.
+ */
+public class BillingEngine {
+
+    private final int parallelism;
+    private final int partitionSize;
+    private final int writeBatchSize;
+
+    // Defaults, overridable with -Dwms.billing.parallelism / partitionUsers / writeBatch
+    public BillingEngine() {
+        this(defaultParallelism(),
+                Integer.getInteger("wms.billing.partitionUsers", 500),
+                Integer.getInteger("wms.billing.writeBatch", 2000));
+    }
+
+    // Every worker holds a pooled connection while it reads, so leave one for the writer and the UI
+    private static int defaultParallelism() {
+        int workers = Integer.getInteger("wms.billing.parallelism", Runtime.getRuntime().availableProcessors());
+        return Math.max(1, Math.min(workers, DatabaseHandler.getPoolSize() - 1));
+    }
+
+    public BillingEngine(int parallelism, int partitionSize, int writeBatchSize) {
+        if (parallelism < 1 || partitionSize < 1 || writeBatchSize < 1) {
+            throw new IllegalArgumentException("Billing engine settings must be positive");
+        }
+        this.parallelism = parallelism;
+        this.partitionSize = partitionSize;
+        this.writeBatchSize = writeBatchSize;
+    }
+
+    /**
+     * Outcome of a billing run.
+     */
+    public static class Report {
+        private final int runId;
+        private final boolean resumed;
+        private final int billsCreated;
+        private final int notificationsSent;
+        private final int partitions;
+        private final long elapsedNanos;
+
+        Report(int runId, boolean resumed, int billsCreated, int notificationsSent, int partitions, long elapsedNanos) {
+            this.runId = runId;
+            this.resumed = resumed;
+            this.billsCreated = billsCreated;
+            this.notificationsSent = notificationsSent;
+            this.partitions = partitions;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public int getRunId() { return runId; }
+        public boolean isResumed() { return resumed; }
+        public int getBillsCreated() { return billsCreated; }
+        public int getNotificationsSent() { return notificationsSent; }
+        public int getPartitions() { return partitions; }
+        public double getElapsedMillis() { return elapsedNanos / 1_000_000.0; }
+
+        // One bill per user, so this is also bills per second
+        public double getUsersPerSecond() {
+            return elapsedNanos == 0 ? 0.0 : billsCreated / (elapsedNanos / 1_000_000_000.0);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("run=%d%s bills=%d notifications=%d partitions=%d elapsed=%.1fms throughput=%.0f users/s",
+                    runId, resumed ? " (resumed)" : "", billsCreated, notificationsSent, partitions,
+                    getElapsedMillis(), getUsersPerSecond());
+        }
+    }
+
+    // Bills computed for one user_id partition, or the error that stopped it
+    private static class PartitionResult {
+        private final int index;
+        private final Map<Bill, List<Integer>> bills;
+        private final Exception error;
+
+        PartitionResult(int index, Map<Bill, List<Integer>> bills, Exception error) {
+            this.index = index;
+            this.bills = bills;
+            this.error = error;
+        }
+    }
+
+    public Report run(String billingPeriod, DatabaseHandler.BillingProgressListener listener) throws SQLException {
+        long start = System.nanoTime();
+        BillingRun run = DatabaseHandler.startOrResumeBillingRun(billingPeriod);
+        if (run == null) {
+            throw new SQLException("Could not start a billing run for " + billingPeriod);
+        }
+
+        int[] range = DatabaseHandler.getUnbilledUserIdRange();
+        int fromUserId = range == null ? 0 : Math.max(range[0], run.getLastUserId() + 1);
+        int maxUserId = range == null ? 0 : range[1];
+        if (range == null || fromUserId > maxUserId) {
+            DatabaseHandler.completeBillingRun(run.getId());
+            return new Report(run.getId(), run.isResumed(), 0, 0, 0, System.nanoTime() - start);
+        }
+
+        int partitions = (int) (((long) maxUserId - fromUserId) / partitionSize + 1);
+        BlockingQueue<PartitionResult> results = new ArrayBlockingQueue<>(parallelism * 2);
+        LocalDateTime billingDate = LocalDateTime.now();
+        ForkJoinPool workers = new ForkJoinPool(parallelism);
+        workers.execute(new PartitionTask(0, partitions, fromUserId, maxUserId, billingPeriod, billingDate, results));
+
+        int billsCreated = 0;
+        int notificationsSent = 0;
+        try {
+            // Partitions finish out of order; the checkpoint only covers the contiguous prefix written so far
+            boolean[] written = new boolean[partitions];
+            int contiguous = 0;
+            List<Integer> pendingPartitions = new ArrayList<>();
+            Map<Bill, List<Integer>> batch = new LinkedHashMap<>();
+
+            for (int received = 0; received < partitions; received++) {
+                PartitionResult result = takeResult(results);
+                if (result.error != null) {
+                    throw new SQLException("Billing partition " + result.index + " failed: " + result.error.getMessage(), result.error);
+                }
+                batch.putAll(result.bills);
+                pendingPartitions.add(result.index);
+
+                boolean last = received == partitions - 1;
+                if (batch.size() < writeBatchSize && !last) {
+                    continue;
+                }
+
+                for (int index : pendingPartitions) {
+                    written[index] = true;
+                }
+                while (contiguous < partitions && written[contiguous]) {
+                    contiguous++;
+                }
+                int checkpointUserId = contiguous == 0 ? run.getLastUserId()
+                        : partitionEnd(fromUserId, contiguous - 1, maxUserId);
+
+                if (!batch.isEmpty()) {
+                    notificationsSent += DatabaseHandler.saveBillBatch(run.getId(), batch, checkpointUserId);
+                    billsCreated += batch.size();
+                }
+                if (listener != null) {
+                    listener.onProgress(run.getBillsCreated() + billsCreated, checkpointUserId, maxUserId);
+                }
+                batch = new LinkedHashMap<>();
+                pendingPartitions.clear();
+            }
+        } finally {
+            workers.shutdownNow();
+        }
+
+        DatabaseHandler.completeBillingRun(run.getId());
+        Report report = new Report(run.getId(), run.isResumed(), billsCreated, notificationsSent, partitions, System.nanoTime() - start);
+        System.out.println("Billing engine finished " + billingPeriod + ": " + report);
+        return report;
+    }
+
+    private static PartitionResult takeResult(BlockingQueue<PartitionResult> results) throws SQLException {
+        try {
+            return results.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Billing run interrupted; it will resume from its last checkpoint", e);
+        }
+    }
+
+    private int partitionStart(int fromUserId, int index) {
+        return (int) (fromUserId + (long) index * partitionSize);
+    }
+
+    private int partitionEnd(int fromUserId, int index, int maxUserId) {
+        return (int) Math.min((long) partitionStart(fromUserId, index) + partitionSize - 1, maxUserId);
+    }
+
+    // Splits the partition index range in half until a single partition is left, then prices it
+    private class PartitionTask extends RecursiveAction {
+        // Fork/join tasks are never serialized
+        private static final long serialVersionUID = 1L;
+
+        private final int first;
+        private final int end;
+        private final int fromUserId;
+        private final int maxUserId;
+        private final String billingPeriod;
+        private final LocalDateTime billingDate;
+        private final transient BlockingQueue<PartitionResult> results;
+
+        PartitionTask(int first, int end, int fromUserId, int maxUserId, String billingPeriod,
+                      LocalDateTime billingDate, BlockingQueue<PartitionResult> results) {
+            this.first = first;
+            this.end = end;
+            this.fromUserId = fromUserId;
+            this.maxUserId = maxUserId;
+            this.billingPeriod = billingPeriod;
+            this.billingDate = billingDate;
+            this.results = results;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - first > 1) {
+                int mid = (first + end) >>> 1;
+                invokeAll(new PartitionTask(first, mid, fromUserId, maxUserId, billingPeriod, billingDate, results),
+                        new PartitionTask(mid, end, fromUserId, maxUserId, billingPeriod, billingDate, results));
+                return;
+            }
+
+            PartitionResult result;
+            try {
+                result = new PartitionResult(first, priceUsers(
+                        DatabaseHandler.getUnbilledRequestsInRange(partitionStart(fromUserId, first),
+                                partitionEnd(fromUserId, first, maxUserId))), null);
+            } catch (SQLException | RuntimeException e) {
+                result = new PartitionResult(first, Map.of(), e);
+            }
+            try {
+                // Blocks while the writer is behind, which bounds the bills held in memory
+                while (!results.offer(result, 100, TimeUnit.MILLISECONDS)) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        return;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        // Requests arrive ordered by user, so each user's run of rows becomes one bill
+        private Map<Bill, List<Integer>> priceUsers(List<Request> requests) {
+            Map<Bill, List<Integer>> bills = new LinkedHashMap<>();
+            int i = 0;
+            while (i < requests.size()) {
+                int userId = requests.get(i).getUserId();
+                double totalVolume = 0;
+                List<Integer> requestIds = new ArrayList<>();
+                for (; i < requests.size() && requests.get(i).getUserId() == userId; i++) {
+                    totalVolume += requests.get(i).getVolume();
+                    requestIds.add(requests.get(i).getId());
+                }
+                if (totalVolume <= 0) {
+                    continue;
+                }
+
+                Bill bill = new Bill();
+                bill.setUserId(userId);
+                bill.setTotalVolume(totalVolume);
+                bill.setAmountDue(Bill.calculateBillAmount(totalVolume));
+                bill.setAmountPaid(0);
+                bill.setStatus("Unpaid");
+                bill.setBillingDate(billingDate);
+                bill.setDueDate(billingDate.plusDays(30));
+                bill.setBillingPeriod(billingPeriod);
+                bills.put(bill, requestIds);
+            }
+            return bills;
+        }
+    }
+}
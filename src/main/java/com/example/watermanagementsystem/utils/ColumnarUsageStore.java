@@ -0,0 +1,356 @@
+package com.example.watermanagementsystem.utils;
+
+import com.example.watermanagementsystem.controllers.DatabaseHandler;
+import com.example.watermanagementsystem.models.UsageTotals;
+import com.example.watermanagementsystem.models.UserUsage;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.IntStream;
+
+/**
+ * Approved usage held as parallel primitive columns (request id, user id, minute, volume) for analytics
+ * scans. Loaded once from the requests table on a background thread and kept current from approval
+ * and reversal events; usernames live in a per-user dictionary instead of being carried on every row.
+ * Until isLoaded() the columns are empty and callers read the rollup tables instead.
+ */
+public class ColumnarUsageStore implements DatabaseHandler.ApprovedUsageListener {
+
+    private static final int INITIAL_CAPACITY = 1024;
+    // Below this many rows a plain loop beats splitting the scan across threads
+    private static final int PARALLEL_THRESHOLD = 200_000;
+    private static final int SCAN_CHUNK = 65_536;
+    private static final long LOAD_RETRY_MILLIS = 30_000;
+
+    private static volatile ColumnarUsageStore instance;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<Integer, String> usernames = new ConcurrentHashMap<>();
+    private int[] requestIds = new int[INITIAL_CAPACITY];
+    private int[] userIds = new int[INITIAL_CAPACITY];
+    private long[] epochMinutes = new long[INITIAL_CAPACITY];
+    private double[] volumes = new double[INITIAL_CAPACITY];
+    // Request ids held in the columns, so an event for a row the load already read is applied once
+    private BitSet present = new BitSet();
+    private int size;
+    private int maxUserId;
+    // Events that arrive while the initial load runs, replayed on top of it in arrival order; null once loaded
+    private List<Runnable> pending = new ArrayList<>();
+    private volatile boolean loaded;
+
+    // Shared store; the first call subscribes to approvals and starts the load in the background
+    public static ColumnarUsageStore getInstance() {
+        ColumnarUsageStore store = instance;
+        if (store == null) {
+            synchronized (ColumnarUsageStore.class) {
+                store = instance;
+                if (store == null) {
+                    store = new ColumnarUsageStore();
+                    // Subscribe before reading, so approvals committed during the scan are buffered, not lost
+                    DatabaseHandler.addApprovedUsageListener(store);
+                    Thread loader = new Thread(store::loadUntilDone, "usage-store-load");
+                    loader.setDaemon(true);
+                    loader.start();
+                    instance = store;
+                }
+            }
+        }
+        return store;
+    }
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    private void loadUntilDone() {
+        while (!load()) {
+            try {
+                Thread.sleep(LOAD_RETRY_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    // Scans the approved requests without holding the lock, then swaps the columns in and replays
+    // the events buffered meanwhile; rows the scan already saw are skipped by request id
+    private boolean load() {
+        long start = System.nanoTime();
+        ColumnarUsageStore scanned = new ColumnarUsageStore();
+        if (!DatabaseHandler.forEachApprovedUsage(scanned::appendRow)) {
+            return false;
+        }
+        usernames.putAll(DatabaseHandler.getUsernames());
+        int replayed;
+        lock.writeLock().lock();
+        try {
+            requestIds = scanned.requestIds;
+            userIds = scanned.userIds;
+            epochMinutes = scanned.epochMinutes;
+            volumes = scanned.volumes;
+            present = scanned.present;
+            size = scanned.size;
+            maxUserId = scanned.maxUserId;
+            replayed = pending.size();
+            for (Runnable event : pending) {
+                event.run();
+            }
+            pending = null;
+            loaded = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        System.out.printf("Usage store: loaded %d approved requests in %.1f ms, %d event(s) replayed (%s)%n",
+                size(), (System.nanoTime() - start) / 1e6, replayed, describeFootprint());
+        return true;
+    }
+
+    @Override
+    public void onApproved(int requestId, int userId, double volume, LocalDateTime date, double supplyLevel) {
+        if (date == null) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            if (pending != null) {
+                pending.add(() -> addRow(requestId, userId, volume, date));
+            } else {
+                addRow(requestId, userId, volume, date);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // A reversal patches its row out in place instead of reloading the store
+    @Override
+    public void onReversed(int requestId, int userId, double volume, LocalDateTime date) {
+        lock.writeLock().lock();
+        try {
+            if (pending != null) {
+                pending.add(() -> removeRow(requestId));
+            } else {
+                removeRow(requestId);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Caller holds the write lock
+    private void addRow(int requestId, int userId, double volume, LocalDateTime date) {
+        if (!present.get(requestId)) {
+            appendRow(requestId, userId, volume, date);
+        }
+    }
+
+    // Caller holds the write lock, or owns a store that is not shared yet
+    private void appendRow(int requestId, int userId, double volume, LocalDateTime date) {
+        if (size == userIds.length) {
+            int capacity = size + (size >> 1);
+            requestIds = Arrays.copyOf(requestIds, capacity);
+            userIds = Arrays.copyOf(userIds, capacity);
+            epochMinutes = Arrays.copyOf(epochMinutes, capacity);
+            volumes = Arrays.copyOf(volumes, capacity);
+        }
+        requestIds[size] = requestId;
+        userIds[size] = userId;
+        epochMinutes[size] = toEpochMinute(date);
+        volumes[size] = volume;
+        present.set(requestId);
+        size++;
+        maxUserId = Math.max(maxUserId, userId);
+    }
+
+    // Reversals are rare, so the row is found by scanning the id column (newest rows first) and
+    // the last row is moved into its slot; scans do not depend on row order. Caller holds the write lock.
+    private void removeRow(int requestId) {
+        if (!present.get(requestId)) {
+            return;
+        }
+        for (int i = size - 1; i >= 0; i--) {
+            if (requestIds[i] == requestId) {
+                int last = size - 1;
+                requestIds[i] = requestIds[last];
+                userIds[i] = userIds[last];
+                epochMinutes[i] = epochMinutes[last];
+                volumes[i] = volumes[last];
+                size = last;
+                present.clear(requestId);
+                return;
+            }
+        }
+    }
+
+    // Request dates are local wall-clock times, so minutes are counted on the UTC line to avoid DST gaps
+    private static long toEpochMinute(LocalDateTime date) {
+        return date.toEpochSecond(ZoneOffset.UTC) / 60;
+    }
+
+    private static long toEpochMinute(LocalDate day) {
+        return toEpochMinute(day.atStartOfDay());
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Same periods as DatabaseHandler.getUsageTotals: today, the last seven days, this month, this year
+    public UsageTotals getUsageTotals(LocalDate today) {
+        long dayStart = toEpochMinute(today);
+        long dayEnd = toEpochMinute(today.plusDays(1));
+        long weekStart = toEpochMinute(today.minusWeeks(1).plusDays(1));
+        long monthStart = toEpochMinute(today.withDayOfMonth(1));
+        long monthEnd = toEpochMinute(today.withDayOfMonth(1).plusMonths(1));
+        long yearStart = toEpochMinute(today.withDayOfYear(1));
+        long yearEnd = toEpochMinute(today.withDayOfYear(1).plusYears(1));
+
+        lock.readLock().lock();
+        try {
+            final long[] minutes = epochMinutes;
+            final double[] vols = volumes;
+            // total, daily, weekly, monthly, yearly
+            double[] sums = scan(size, 5, (from, to, acc) -> {
+                for (int i = from; i < to; i++) {
+                    long minute = minutes[i];
+                    double volume = vols[i];
+                    acc[0] += volume;
+                    if (minute >= dayStart && minute < dayEnd) acc[1] += volume;
+                    if (minute >= weekStart) acc[2] += volume;
+                    if (minute >= monthStart && minute < monthEnd) acc[3] += volume;
+                    if (minute >= yearStart && minute < yearEnd) acc[4] += volume;
+                }
+            });
+            return new UsageTotals(sums[0], size, sums[1], sums[2], sums[3], sums[4]);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Users with the most approved requests since the given day (null for all time)
+    public List<UserUsage> getTopUsersByRequestCount(int limit, LocalDate since) {
+        return topUsers(limit, since, Comparator.comparingInt(UserUsage::getRequestCount)
+                .thenComparingDouble(UserUsage::getVolume));
+    }
+
+    // Users with the largest approved volume since the given day (null for all time)
+    public List<UserUsage> getTopUsersByVolume(int limit, LocalDate since) {
+        return topUsers(limit, since, Comparator.comparingDouble(UserUsage::getVolume)
+                .thenComparingInt(UserUsage::getRequestCount));
+    }
+
+    private List<UserUsage> topUsers(int limit, LocalDate since, Comparator<UserUsage> order) {
+        long from = since == null ? Long.MIN_VALUE : toEpochMinute(since);
+        double[] totals;
+        int users;
+        lock.readLock().lock();
+        try {
+            // Per-user counts and volumes side by side: [2 * id] = count, [2 * id + 1] = volume
+            users = maxUserId + 1;
+            final int[] ids = userIds;
+            final long[] minutes = epochMinutes;
+            final double[] vols = volumes;
+            totals = scan(size, 2 * users, (start, end, acc) -> {
+                for (int i = start; i < end; i++) {
+                    if (minutes[i] >= from) {
+                        int slot = ids[i] << 1;
+                        acc[slot] += 1;
+                        acc[slot + 1] += vols[i];
+                    }
+                }
+            });
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        List<UserUsage> ranked = new ArrayList<>();
+        for (int userId = 0; userId < users; userId++) {
+            int count = (int) totals[userId << 1];
+            if (count > 0) {
+                ranked.add(new UserUsage(userId, null, count, totals[(userId << 1) + 1]));
+            }
+        }
+        ranked.sort(order.reversed());
+
+        // Like the SQL rankings, requests whose user no longer exists are left out
+        List<UserUsage> top = new ArrayList<>();
+        for (int i = 0; i < ranked.size() && top.size() < limit; i++) {
+            UserUsage usage = ranked.get(i);
+            String username = getUsername(usage.getUserId());
+            if (username != null) {
+                top.add(new UserUsage(usage.getUserId(), username, usage.getRequestCount(), usage.getVolume()));
+            }
+        }
+        return top;
+    }
+
+    // Users registered after the load are picked up by re-reading the (small) users table
+    private String getUsername(int userId) {
+        String username = usernames.get(userId);
+        if (username == null) {
+            usernames.putAll(DatabaseHandler.getUsernames());
+            username = usernames.get(userId);
+        }
+        return username;
+    }
+
+    private interface ChunkScan {
+        void scan(int from, int to, double[] acc);
+    }
+
+    // Runs the scan over row chunks, in parallel for large stores, and adds up the per-chunk accumulators
+    private static double[] scan(int rows, int width, ChunkScan chunkScan) {
+        if (rows < PARALLEL_THRESHOLD) {
+            double[] acc = new double[width];
+            chunkScan.scan(0, rows, acc);
+            return acc;
+        }
+        int chunks = (rows + SCAN_CHUNK - 1) / SCAN_CHUNK;
+        return IntStream.range(0, chunks).parallel()
+                .mapToObj(chunk -> {
+                    double[] acc = new double[width];
+                    chunkScan.scan(chunk * SCAN_CHUNK, Math.min(rows, (chunk + 1) * SCAN_CHUNK), acc);
+                    return acc;
+                })
+                .reduce(new double[width], (a, b) -> {
+                    double[] sum = new double[width];
+                    for (int i = 0; i < width; i++) sum[i] = a[i] + b[i];
+                    return sum;
+                });
+    }
+
+    // Heap held by the columns: 4 + 4 + 8 + 8 bytes per allocated slot, spare capacity included
+    public long getColumnBytes() {
+        lock.readLock().lock();
+        try {
+            return (long) requestIds.length * Integer.BYTES + (long) userIds.length * Integer.BYTES
+                    + (long) epochMinutes.length * Long.BYTES + (long) volumes.length * Double.BYTES;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public String describeFootprint() {
+        long bytes = getColumnBytes();
+        int rows = size();
+        double perMillion = rows < INITIAL_CAPACITY ? (2 * Integer.BYTES + Long.BYTES + Double.BYTES) * 1_000_000.0
+                : bytes * (1_000_000.0 / rows);
+        return String.format("%d rows, %.1f MiB of columns, %.1f MiB per million rows, %d usernames",
+                rows, bytes / 1048576.0, perMillion / 1048576.0, usernames.size());
+    }
+}
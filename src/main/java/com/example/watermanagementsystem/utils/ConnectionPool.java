@@ -0,0 +1,368 @@
+package com.example.watermanagementsystem.utils;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded pool of JDBC connections. Connections handed out by getConnection()
+ * return to the pool when closed instead of closing the underlying connection.
+ * Each physical connection keeps its own cache of prepared statements.
+ * Explicit transactions (setAutoCommit(false)) run one at a time, in arrival order.
+ */
+public class ConnectionPool {
+
+    private final String url;
+    private final int maxSize;
+    private final long acquireTimeoutMillis;
+    private final List<String> connectionSetup;
+    private final int statementCacheSize;
+
+    private final Semaphore permits;
+    // SQLite admits one writer and its busy handler polls, so under steady write load a waiting
+    // connection can lose every retry until busy_timeout. Transactions queue here fairly instead.
+    private final Semaphore transactionLock = new Semaphore(1, true);
+    private final LinkedBlockingDeque<Connection> idle = new LinkedBlockingDeque<>();
+    private final Map<Connection, StatementCache> statementCaches = new ConcurrentHashMap<>();
+
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger created = new AtomicInteger();
+    private final AtomicLong acquired = new AtomicLong();
+    private final AtomicLong waited = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong statementCacheHits = new AtomicLong();
+    private final AtomicLong statementCacheMisses = new AtomicLong();
+
+    private volatile boolean closed;
+
+    // connectionSetup holds statements (usually PRAGMAs) run once on every new physical connection
+    public ConnectionPool(String url, int maxSize, long acquireTimeoutMillis, List<String> connectionSetup) {
+        this(url, maxSize, acquireTimeoutMillis, connectionSetup, 0);
+    }
+
+    // statementCacheSize is the number of prepared statements kept per connection; 0 disables caching
+    public ConnectionPool(String url, int maxSize, long acquireTimeoutMillis, List<String> connectionSetup,
+                          int statementCacheSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Pool size must be at least 1");
+        }
+        this.url = url;
+        this.maxSize = maxSize;
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+        this.connectionSetup = new ArrayList<>(connectionSetup);
+        this.statementCacheSize = Math.max(0, statementCacheSize);
+        this.permits = new Semaphore(maxSize, true);
+    }
+
+    // Borrow a connection, waiting up to the acquire timeout if all connections are in use
+    public Connection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+
+        long start = System.nanoTime();
+        boolean immediate = permits.tryAcquire();
+        if (!immediate) {
+            try {
+                if (!permits.tryAcquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                    timeouts.incrementAndGet();
+                    throw new SQLException("Timed out after " + acquireTimeoutMillis + " ms waiting for a database connection");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for a database connection", e);
+            }
+            long waitNanos = System.nanoTime() - start;
+            waited.incrementAndGet();
+            totalWaitNanos.addAndGet(waitNanos);
+            maxWaitNanos.accumulateAndGet(waitNanos, Math::max);
+        }
+
+        try {
+            Connection physical = idle.pollFirst();
+            if (physical == null || physical.isClosed()) {
+                physical = openConnection();
+            }
+            acquired.incrementAndGet();
+            active.incrementAndGet();
+            return wrap(physical);
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private Connection openConnection() throws SQLException {
+        Connection conn = DriverManager.getConnection(url);
+        try (Statement stmt = conn.createStatement()) {
+            for (String sql : connectionSetup) {
+                stmt.execute(sql);
+            }
+        } catch (SQLException e) {
+            conn.close();
+            throw e;
+        }
+        if (statementCacheSize > 0) {
+            statementCaches.put(conn, new StatementCache(conn, statementCacheSize, statementCacheHits, statementCacheMisses));
+        }
+        created.incrementAndGet();
+        return conn;
+    }
+
+    private Connection wrap(Connection physical) {
+        return (Connection) Proxy.newProxyInstance(
+                ConnectionPool.class.getClassLoader(),
+                new Class<?>[]{Connection.class},
+                new PooledConnectionHandler(physical));
+    }
+
+    // Called when a borrowed connection is closed by its user
+    private void release(Connection physical) {
+        active.decrementAndGet();
+        boolean reusable = !closed;
+        StatementCache cache = statementCaches.get(physical);
+        if (cache != null) {
+            cache.releaseAll();
+        }
+        try {
+            if (physical.isClosed()) {
+                reusable = false;
+            } else if (!physical.getAutoCommit()) {
+                // Never hand out a connection with a half-finished transaction
+                physical.rollback();
+                physical.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            System.err.println("Discarding pooled connection: " + e.getMessage());
+            reusable = false;
+        }
+
+        if (reusable) {
+            idle.offerFirst(physical);
+        } else {
+            closeQuietly(physical);
+        }
+        permits.release();
+    }
+
+    // End an explicit transaction. The SQLite driver's commit() immediately runs BEGIN again, which under
+    // transaction_mode=IMMEDIATE takes the write lock straight back and can wait out busy_timeout after our
+    // data is already committed; switching back to autocommit commits without opening a new transaction.
+    public static void commit(Connection conn) throws SQLException {
+        try {
+            conn.setAutoCommit(true);
+        } catch (SQLException e) {
+            // The driver flips its autocommit flag before COMMIT runs; turn it back off so the caller's
+            // rollback() still applies. The BEGIN this issues fails if the transaction is still open.
+            try {
+                conn.setAutoCommit(false);
+            } catch (SQLException stillOpen) {
+                // Expected: the flag is off again, which is all the rollback needs
+            }
+            throw e;
+        }
+    }
+
+    // Wait for the transaction lock before a borrowed connection opens its transaction
+    private void lockTransaction() throws SQLException {
+        try {
+            if (!transactionLock.tryAcquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new SQLException("Timed out after " + acquireTimeoutMillis + " ms waiting for another transaction to finish");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for another transaction to finish", e);
+        }
+    }
+
+    // Close all idle connections; borrowed connections are closed as they are returned
+    public void close() {
+        closed = true;
+        Connection conn;
+        while ((conn = idle.pollFirst()) != null) {
+            closeQuietly(conn);
+        }
+    }
+
+    private void closeQuietly(Connection conn) {
+        StatementCache cache = statementCaches.remove(conn);
+        if (cache != null) {
+            cache.closeAll();
+        }
+        try {
+            conn.close();
+        } catch (SQLException e) {
+            System.err.println("Failed to close pooled connection: " + e.getMessage());
+        }
+    }
+
+    public Stats getStats() {
+        return new Stats(maxSize, active.get(), idle.size(), created.get(), acquired.get(),
+                waited.get(), timeouts.get(), totalWaitNanos.get(), maxWaitNanos.get(),
+                statementCacheHits.get(), statementCacheMisses.get());
+    }
+
+    /**
+     * Point-in-time snapshot of pool usage, used to size the pool.
+     */
+    public static class Stats {
+        private final int maxSize;
+        private final int active;
+        private final int idle;
+        private final int created;
+        private final long acquired;
+        private final long waited;
+        private final long timeouts;
+        private final long totalWaitNanos;
+        private final long maxWaitNanos;
+        private final long statementCacheHits;
+        private final long statementCacheMisses;
+
+        Stats(int maxSize, int active, int idle, int created, long acquired,
+              long waited, long timeouts, long totalWaitNanos, long maxWaitNanos,
+              long statementCacheHits, long statementCacheMisses) {
+            this.maxSize = maxSize;
+            this.active = active;
+            this.idle = idle;
+            this.created = created;
+            this.acquired = acquired;
+            this.waited = waited;
+            this.timeouts = timeouts;
+            this.totalWaitNanos = totalWaitNanos;
+            this.maxWaitNanos = maxWaitNanos;
+            this.statementCacheHits = statementCacheHits;
+            this.statementCacheMisses = statementCacheMisses;
+        }
+
+        public int getMaxSize() { return maxSize; }
+        public int getActive() { return active; }
+        public int getIdle() { return idle; }
+        public int getCreated() { return created; }
+        public long getAcquired() { return acquired; }
+        public long getWaited() { return waited; }
+        public long getTimeouts() { return timeouts; }
+        public double getTotalWaitMillis() { return totalWaitNanos / 1_000_000.0; }
+        public double getMaxWaitMillis() { return maxWaitNanos / 1_000_000.0; }
+        public long getStatementCacheHits() { return statementCacheHits; }
+        public long getStatementCacheMisses() { return statementCacheMisses; }
+
+        public double getStatementCacheHitRatio() {
+            long lookups = statementCacheHits + statementCacheMisses;
+            return lookups == 0 ? 0.0 : (double) statementCacheHits / lookups;
+        }
+
+        // Average wait over all acquisitions, including the ones that did not wait
+        public double getAverageWaitMillis() {
+            return acquired == 0 ? 0.0 : getTotalWaitMillis() / acquired;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("active=%d idle=%d max=%d created=%d acquired=%d waited=%d timeouts=%d avgWait=%.3fms maxWait=%.3fms "
+                            + "stmtCache hits=%d misses=%d ratio=%.2f",
+                    active, idle, maxSize, created, acquired, waited, timeouts, getAverageWaitMillis(), getMaxWaitMillis(),
+                    statementCacheHits, statementCacheMisses, getStatementCacheHitRatio());
+        }
+    }
+
+    // Delegates to the physical connection, except close() which returns it to the pool,
+    // prepareStatement(), which is served from the connection's statement cache, and
+    // setAutoCommit(), which holds the transaction lock while autocommit is off
+    private class PooledConnectionHandler implements InvocationHandler {
+        private final Connection physical;
+        private final StatementCache cache;
+        private boolean released;
+        private boolean inTransaction;
+
+        PooledConnectionHandler(Connection physical) {
+            this.physical = physical;
+            this.cache = statementCaches.get(physical);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    synchronized (this) {
+                        if (!released) {
+                            released = true;
+                            release(physical);
+                            if (inTransaction) {
+                                inTransaction = false;
+                                transactionLock.release();
+                            }
+                        }
+                    }
+                    return null;
+                case "isClosed":
+                    synchronized (this) {
+                        return released || physical.isClosed();
+                    }
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "PooledConnection[" + physical + "]";
+                default:
+                    break;
+            }
+
+            synchronized (this) {
+                if (released) {
+                    throw new SQLException("Connection has already been returned to the pool");
+                }
+            }
+            if (cache != null && "prepareStatement".equals(method.getName())) {
+                Class<?>[] params = method.getParameterTypes();
+                if (params.length == 1) {
+                    return cache.prepare((Connection) proxy, (String) args[0], Statement.NO_GENERATED_KEYS);
+                }
+                if (params.length == 2 && params[1] == int.class) {
+                    return cache.prepare((Connection) proxy, (String) args[0], (Integer) args[1]);
+                }
+            }
+            if ("setAutoCommit".equals(method.getName())) {
+                setAutoCommit((Boolean) args[0]);
+                return null;
+            }
+            try {
+                return method.invoke(physical, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+        // The lock follows the driver's own autocommit flag, which it sets even when BEGIN or COMMIT fails
+        private void setAutoCommit(boolean autoCommit) throws SQLException {
+            if (!autoCommit && !inTransaction) {
+                lockTransaction();
+                inTransaction = true;
+            }
+            try {
+                physical.setAutoCommit(autoCommit);
+            } finally {
+                if (inTransaction && physical.getAutoCommit()) {
+                    inTransaction = false;
+                    transactionLock.release();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.example.watermanagementsystem.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * SQLite tuning applied to every pooled connection. Defaults favour concurrent
+ * readers (WAL) and one fsync per commit; each value can be overridden with a
+ * wms.db.* system property, e.g. -Dwms.db.journalMode=DELETE.
+ */
+public class DatabasePerformanceProfile {
+
+    private final String journalMode;
+    private final String synchronous;
+    private final int cacheSizeKb;
+    private final long mmapSizeBytes;
+    private final String tempStore;
+    private final int busyTimeoutMs;
+    private final int walAutoCheckpointPages;
+    private final int checkpointIntervalSeconds;
+
+    public DatabasePerformanceProfile(String journalMode, String synchronous, int cacheSizeKb, long mmapSizeBytes,
+                                      String tempStore, int busyTimeoutMs, int walAutoCheckpointPages,
+                                      int checkpointIntervalSeconds) {
+        this.journalMode = journalMode.toUpperCase();
+        this.synchronous = synchronous.toUpperCase();
+        this.cacheSizeKb = cacheSizeKb;
+        this.mmapSizeBytes = mmapSizeBytes;
+        this.tempStore = tempStore.toUpperCase();
+        this.busyTimeoutMs = busyTimeoutMs;
+        this.walAutoCheckpointPages = walAutoCheckpointPages;
+        this.checkpointIntervalSeconds = checkpointIntervalSeconds;
+    }
+
+    // Defaults, overridable through system properties
+    public static DatabasePerformanceProfile fromSystemProperties() {
+        return new DatabasePerformanceProfile(
+                System.getProperty("wms.db.journalMode", "WAL"),
+                System.getProperty("wms.db.synchronous", "NORMAL"),
+                Integer.getInteger("wms.db.cacheSizeKb", 16 * 1024),
+                Long.getLong("wms.db.mmapSizeBytes", 64L * 1024 * 1024),
+                System.getProperty("wms.db.tempStore", "MEMORY"),
+                Integer.getInteger("wms.db.busyTimeoutMs", 5000),
+                Integer.getInteger("wms.db.walAutoCheckpointPages", 1000),
+                Integer.getInteger("wms.db.checkpointIntervalSeconds", 60));
+    }
+
+    // PRAGMAs to run on each new connection; busy_timeout goes first so the journal mode switch can wait for locks
+    public List<String> toConnectionSetup() {
+        List<String> pragmas = new ArrayList<>();
+        pragmas.add("PRAGMA busy_timeout = " + busyTimeoutMs);
+        pragmas.add("PRAGMA journal_mode = " + journalMode);
+        pragmas.add("PRAGMA synchronous = " + synchronous);
+        // Negative cache_size is in KiB rather than pages
+        pragmas.add("PRAGMA cache_size = -" + cacheSizeKb);
+        pragmas.add("PRAGMA mmap_size = " + mmapSizeBytes);
+        pragmas.add("PRAGMA temp_store = " + tempStore);
+        if (isWal()) {
+            pragmas.add("PRAGMA wal_autocheckpoint = " + walAutoCheckpointPages);
+        }
+        return pragmas;
+    }
+
+    public boolean isWal() {
+        return "WAL".equals(journalMode);
+    }
+
+    public String getJournalMode() { return journalMode; }
+    public String getSynchronous() { return synchronous; }
+    public int getCacheSizeKb() { return cacheSizeKb; }
+    public long getMmapSizeBytes() { return mmapSizeBytes; }
+    public String getTempStore() { return tempStore; }
+    public int getBusyTimeoutMs() { return busyTimeoutMs; }
+    public int getWalAutoCheckpointPages() { return walAutoCheckpointPages; }
+    public int getCheckpointIntervalSeconds() { return checkpointIntervalSeconds; }
+
+    @Override
+    public String toString() {
+        return String.format("journal_mode=%s synchronous=%s cache=%dKiB mmap=%dB temp_store=%s busy_timeout=%dms",
+                journalMode, synchronous, cacheSizeKb, mmapSizeBytes, tempStore, busyTimeoutMs);
+    }
+}
@@ -0,0 +1,96 @@
+package com.example.watermanagementsystem.utils;
+
+import com.example.watermanagementsystem.controllers.DatabaseHandler;
+import com.example.watermanagementsystem.models.NotificationCounts;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Unread and urgent notification counts per target (0 = admins), loaded once and then kept current
+ * from notification write events, so badges read a map entry instead of counting rows.
+ * Subscribers are called on the thread that made the change.
+ */
+public class NotificationCounters implements DatabaseHandler.NotificationListener {
+
+    public interface Listener {
+        void onCountsChanged(int targetUserId, NotificationCounts counts);
+    }
+
+    private static volatile NotificationCounters instance;
+
+    private final Map<Integer, NotificationCounts> counts = new ConcurrentHashMap<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    // Shared counters, loaded on first use and subscribed to notification changes from then on
+    public static NotificationCounters getInstance() {
+        NotificationCounters counters = instance;
+        if (counters == null) {
+            synchronized (NotificationCounters.class) {
+                counters = instance;
+                if (counters == null) {
+                    counters = new NotificationCounters();
+                    // Subscribe before reading; reload() then keeps events and the read from overlapping
+                    DatabaseHandler.addNotificationListener(counters);
+                    counters.reload();
+                    instance = counters;
+                }
+            }
+        }
+        return counters;
+    }
+
+    public NotificationCounts getCounts(int targetUserId) {
+        return counts.getOrDefault(targetUserId, NotificationCounts.NONE);
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    // Replaces every count with a fresh GROUP BY read and tells subscribers of each target that changed.
+    // The read runs while no notification change is in flight, so each event is either already in it or
+    // delivered after the swap, never counted twice or lost.
+    public boolean reload() {
+        return DatabaseHandler.withUnreadNotificationCounts(loaded -> {
+            Set<Integer> targets;
+            synchronized (this) {
+                targets = new HashSet<>(counts.keySet());
+                targets.addAll(loaded.keySet());
+                counts.clear();
+                counts.putAll(loaded);
+            }
+            for (int target : targets) {
+                publish(target, getCounts(target));
+            }
+        });
+    }
+
+    @Override
+    public void onUnreadChanged(int targetUserId, int unreadDelta, int urgentDelta) {
+        NotificationCounts updated;
+        synchronized (this) {
+            updated = getCounts(targetUserId).plus(unreadDelta, urgentDelta);
+            counts.put(targetUserId, updated);
+        }
+        publish(targetUserId, updated);
+    }
+
+    private void publish(int targetUserId, NotificationCounts updated) {
+        for (Listener listener : listeners) {
+            try {
+                listener.onCountsChanged(targetUserId, updated);
+            } catch (RuntimeException e) {
+                System.err.println("Notification counter listener failed: " + e.getMessage());
+            }
+        }
+    }
+}
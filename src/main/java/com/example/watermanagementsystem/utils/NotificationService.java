@@ -1,12 +1,8 @@
 package com.example.watermanagementsystem.utils;
 
 import com.example.watermanagementsystem.controllers.DatabaseHandler;
-import com.example.watermanagementsystem.models.Bill;
 import com.example.watermanagementsystem.models.Notification;
-
-import java.time.LocalDateTime;
-import java.time.temporal.ChronoUnit;
-import java.util.List;
+import com.example.watermanagementsystem.models.NotificationCounts;
 
 /**
  * Service class to handle notification generation and management
@@ -39,72 +35,28 @@ public class NotificationService {
         System.out.println("Notification created: Payment received for Bill #" + billId);
     }
 
-    // Check and create notifications for upcoming and overdue payments
-    public static void checkPaymentDueReminders() {
-        // Get bills due within 14 days (includes overdue)
-        List<Bill> billsDueSoon = DatabaseHandler.getBillsDueSoon(14);
-        LocalDateTime now = LocalDateTime.now();
-
-        for (Bill bill : billsDueSoon) {
-            if (bill.getDueDate() == null) continue;
-
-            long daysUntilDue = ChronoUnit.DAYS.between(now.toLocalDate(), bill.getDueDate().toLocalDate());
-            double balance = bill.getAmountDue() - bill.getAmountPaid();
-
-            if (balance <= 0) continue; // Bill is paid
-
-            // Check if we already have a recent notification for this bill
-            if (!hasRecentNotification(bill.getId(), "PAYMENT_DUE")) {
-                Notification notification = Notification.paymentDue(
-                    bill.getId(),
-                    bill.getUsername(),
-                    balance,
-                    (int) daysUntilDue
-                );
-                DatabaseHandler.saveNotification(notification);
-                System.out.println("Payment reminder created for Bill #" + bill.getId() +
-                    " (" + daysUntilDue + " days until due)");
-            }
-        }
-    }
-
-    // Check if a notification for this bill was created in the last 24 hours
-    private static boolean hasRecentNotification(int billId, String type) {
-        List<Notification> notifications = DatabaseHandler.getAllNotifications();
-        LocalDateTime oneDayAgo = LocalDateTime.now().minusHours(24);
-
-        for (Notification n : notifications) {
-            if (n.getRelatedId() == billId &&
-                type.equals(n.getType()) &&
-                n.getCreatedAt() != null &&
-                n.getCreatedAt().isAfter(oneDayAgo)) {
-                return true;
-            }
-        }
-        return false;
+    // Warn admins that the projected supply runs out within the HIGH or URGENT horizon
+    public static void notifySupplyForecast(double level, double hoursToEmpty, String priority) {
+        Notification notification = Notification.supplyForecast(level, hoursToEmpty, priority);
+        DatabaseHandler.saveNotification(notification);
+        System.out.println("Notification created: " + priority + " supply forecast (" + String.format("%.1f", hoursToEmpty) + " h to empty)");
     }
 
-    // Generate all pending payment reminders (call this on admin dashboard load)
+    // Ask the background reminder scheduler to reload upcoming bills; returns immediately
     public static void generatePaymentReminders() {
-        checkPaymentDueReminders();
+        ReminderScheduler.getInstance().refresh();
     }
 
     // Get count of urgent notifications (overdue payments, etc.)
     public static int getUrgentNotificationCount() {
-        List<Notification> unread = DatabaseHandler.getUnreadNotifications();
-        int count = 0;
-        for (Notification n : unread) {
-            if ("URGENT".equals(n.getPriority()) || "HIGH".equals(n.getPriority())) {
-                count++;
-            }
-        }
-        return count;
+        return NotificationCounters.getInstance().getCounts(0).getUrgent();
     }
 
     // Get summary text for notification badge
     public static String getNotificationSummary() {
-        int unreadCount = DatabaseHandler.getUnreadNotificationCount();
-        int urgentCount = getUrgentNotificationCount();
+        NotificationCounts counts = NotificationCounters.getInstance().getCounts(0);
+        int unreadCount = counts.getUnread();
+        int urgentCount = counts.getUrgent();
 
         if (unreadCount == 0) {
             return "No new notifications";
@@ -138,63 +90,9 @@ public class NotificationService {
         System.out.println("User notification created: Payment confirmed for user " + userId);
     }
 
-    // Check and create payment due reminders for a specific user
-    public static void checkUserPaymentDueReminders(int userId) {
-        List<Bill> userBills = DatabaseHandler.getBillsByUser(userId);
-        LocalDateTime now = LocalDateTime.now();
-
-        for (Bill bill : userBills) {
-            if (bill.getDueDate() == null || "Paid".equals(bill.getStatus())) continue;
-
-            long daysUntilDue = ChronoUnit.DAYS.between(now.toLocalDate(), bill.getDueDate().toLocalDate());
-            double balance = bill.getAmountDue() - bill.getAmountPaid();
-
-            if (balance <= 0) continue; // Bill is paid
-
-            // Only create reminders for bills due within 14 days
-            if (daysUntilDue <= 14) {
-                // Check if we already have a recent notification for this bill
-                if (!hasRecentUserNotification(userId, bill.getId(), "PAYMENT_DUE")) {
-                    Notification notification = Notification.userPaymentDue(
-                        userId,
-                        bill.getId(),
-                        balance,
-                        (int) daysUntilDue
-                    );
-                    DatabaseHandler.saveNotification(notification);
-                    System.out.println("User payment reminder created for Bill #" + bill.getId() +
-                        " for user " + userId + " (" + daysUntilDue + " days until due)");
-                }
-            }
-        }
-    }
-
-    // Check if a user notification for this bill was created in the last 24 hours
-    private static boolean hasRecentUserNotification(int userId, int billId, String type) {
-        List<Notification> notifications = DatabaseHandler.getNotificationsByUser(userId);
-        LocalDateTime oneDayAgo = LocalDateTime.now().minusHours(24);
-
-        for (Notification n : notifications) {
-            if (n.getRelatedId() == billId &&
-                type.equals(n.getType()) &&
-                n.getCreatedAt() != null &&
-                n.getCreatedAt().isAfter(oneDayAgo)) {
-                return true;
-            }
-        }
-        return false;
-    }
-
     // Get count of urgent notifications for a user
     public static int getUserUrgentNotificationCount(int userId) {
-        List<Notification> unread = DatabaseHandler.getUnreadNotificationsByUser(userId);
-        int count = 0;
-        for (Notification n : unread) {
-            if ("URGENT".equals(n.getPriority()) || "HIGH".equals(n.getPriority())) {
-                count++;
-            }
-        }
-        return count;
+        return NotificationCounters.getInstance().getCounts(userId).getUrgent();
     }
 }
 
@@ -0,0 +1,95 @@
+package com.example.watermanagementsystem.utils;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Mergeable quantile sketch with relative error (DDSketch layout). Positive values fall into
+ * logarithmic buckets of ratio gamma, so any quantile is within ±1% of the true value while the
+ * sketch holds a few dozen buckets for the whole range of request volumes.
+ */
+public class QuantileSketch {
+
+    private static final double RELATIVE_ACCURACY = 0.01;
+    private static final double GAMMA = (1 + RELATIVE_ACCURACY) / (1 - RELATIVE_ACCURACY);
+    private static final double LOG_GAMMA = Math.log(GAMMA);
+    private static final byte FORMAT_VERSION = 1;
+
+    private final TreeMap<Integer, Long> buckets = new TreeMap<>();
+    private long zeroCount;
+    private long count;
+
+    public void add(double value) {
+        if (value <= 0 || Double.isNaN(value)) {
+            zeroCount++;
+        } else {
+            buckets.merge((int) Math.ceil(Math.log(value) / LOG_GAMMA), 1L, Long::sum);
+        }
+        count++;
+    }
+
+    public void merge(QuantileSketch other) {
+        other.buckets.forEach((index, bucketCount) -> buckets.merge(index, bucketCount, Long::sum));
+        zeroCount += other.zeroCount;
+        count += other.count;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    // Value at quantile q in [0, 1], or 0 for an empty sketch
+    public double getQuantile(double q) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.floor(Math.max(0, Math.min(1, q)) * (count - 1));
+        if (rank < zeroCount) {
+            return 0;
+        }
+        long seen = zeroCount;
+        for (Map.Entry<Integer, Long> bucket : buckets.entrySet()) {
+            seen += bucket.getValue();
+            if (seen > rank) {
+                // Midpoint of (gamma^(i-1), gamma^i] in the relative sense
+                return 2 * Math.pow(GAMMA, bucket.getKey()) / (GAMMA + 1);
+            }
+        }
+        return 2 * Math.pow(GAMMA, buckets.lastKey()) / (GAMMA + 1);
+    }
+
+    // version, zero count, bucket count, then (index, count) pairs
+    public byte[] toBytes() {
+        ByteBuffer buffer = ByteBuffer.allocate(1 + 8 + 4 + buckets.size() * 12);
+        buffer.put(FORMAT_VERSION);
+        buffer.putLong(zeroCount);
+        buffer.putInt(buckets.size());
+        buckets.forEach((index, bucketCount) -> {
+            buffer.putInt(index);
+            buffer.putLong(bucketCount);
+        });
+        return buffer.array();
+    }
+
+    public static QuantileSketch fromBytes(byte[] bytes) {
+        QuantileSketch sketch = new QuantileSketch();
+        if (bytes == null || bytes.length == 0) {
+            return sketch;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        if (buffer.get() != FORMAT_VERSION) {
+            throw new IllegalArgumentException("Unknown quantile sketch format");
+        }
+        sketch.zeroCount = buffer.getLong();
+        sketch.count = sketch.zeroCount;
+        int size = buffer.getInt();
+        for (int i = 0; i < size; i++) {
+            int index = buffer.getInt();
+            long bucketCount = buffer.getLong();
+            sketch.buckets.put(index, bucketCount);
+            sketch.count += bucketCount;
+        }
+        return sketch;
+    }
+}
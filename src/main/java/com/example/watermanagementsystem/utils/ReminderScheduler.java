@@ -0,0 +1,240 @@
+package com.example.watermanagementsystem.utils;
+
+import com.example.watermanagementsystem.controllers.DatabaseHandler;
+import com.example.watermanagementsystem.models.Bill;
+import com.example.watermanagementsystem.models.Notification;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background payment reminders. Open bills due within the reminder horizon plus one load window are
+ * kept in a priority queue keyed by the next time a reminder threshold is crossed (14, 7, 3 and 1
+ * day(s) before the due date, then every day from the due date on); the worker thread sleeps until
+ * the earliest one, so dashboards no longer scan bills when they open.
+ */
+public class ReminderScheduler {
+
+    private static final int[] DAYS_BEFORE_DUE = {14, 7, 3, 1};
+    private static final int HORIZON_DAYS = DAYS_BEFORE_DUE[0];
+    // Upper bound on one sleep, so clock changes and suspended laptops are noticed within minutes
+    private static final long MAX_SLEEP_MINUTES = 15;
+
+    private static volatile ReminderScheduler instance;
+
+    private final int windowDays;
+    private final ScheduledExecutorService executor;
+    // Only touched on the executor thread
+    private final PriorityQueue<Reminder> queue = new PriorityQueue<>(Comparator.comparing((Reminder r) -> r.fireAt));
+    private final Map<Integer, Reminder> scheduled = new HashMap<>();
+    private LocalDateTime nextLoad = LocalDateTime.MIN;
+    private ScheduledFuture<?> wakeUp;
+
+    // Next reminder of one bill
+    private static class Reminder {
+        final int billId;
+        final LocalDateTime fireAt;
+
+        Reminder(int billId, LocalDateTime fireAt) {
+            this.billId = billId;
+            this.fireAt = fireAt;
+        }
+    }
+
+    // Shared scheduler, started on first use; the load window is set with -Dwms.reminders.windowDays
+    public static ReminderScheduler getInstance() {
+        ReminderScheduler scheduler = instance;
+        if (scheduler == null) {
+            synchronized (ReminderScheduler.class) {
+                scheduler = instance;
+                if (scheduler == null) {
+                    scheduler = new ReminderScheduler(Integer.getInteger("wms.reminders.windowDays", 1));
+                    scheduler.executor.execute(scheduler::run);
+                    instance = scheduler;
+                }
+            }
+        }
+        return scheduler;
+    }
+
+    // Stops the worker thread; a later getInstance() starts a new scheduler
+    public static synchronized void shutdown() {
+        ReminderScheduler scheduler = instance;
+        if (scheduler != null) {
+            scheduler.executor.shutdownNow();
+            instance = null;
+        }
+    }
+
+    private ReminderScheduler(int windowDays) {
+        if (windowDays < 1) {
+            throw new IllegalArgumentException("Reminder window must be at least one day");
+        }
+        this.windowDays = windowDays;
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "payment-reminders");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    // Picks up bills created or rescheduled since the last load without waiting for the window to end
+    public void refresh() {
+        executor.execute(() -> {
+            nextLoad = LocalDateTime.MIN;
+            run();
+        });
+    }
+
+    private void run() {
+        try {
+            LocalDateTime now = LocalDateTime.now();
+            if (!now.isBefore(nextLoad)) {
+                load(now);
+            }
+            fireDue(now);
+        } catch (RuntimeException e) {
+            System.err.println("Payment reminders failed: " + e.getMessage());
+        }
+        scheduleWakeUp();
+    }
+
+    // Queues bills due before the end of the next window that are not queued yet
+    private void load(LocalDateTime now) {
+        long start = System.nanoTime();
+        LocalDate today = now.toLocalDate();
+        int[] counts = new int[2]; // bills read, newly scheduled
+        boolean loaded = DatabaseHandler.forEachBillDueSoon(HORIZON_DAYS + windowDays, bill -> {
+            counts[0]++;
+            if (bill.getDueDate() == null || scheduled.containsKey(bill.getId())
+                    || bill.getAmountDue() - bill.getAmountPaid() <= 0) {
+                return;
+            }
+            LocalDate due = bill.getDueDate().toLocalDate();
+            // A threshold already crossed fires now; its dedupe key stops a repeat after a restart
+            LocalDateTime fireAt = latestCrossing(due, today) != null ? now
+                    : due.minusDays(HORIZON_DAYS).atStartOfDay();
+            add(new Reminder(bill.getId(), fireAt));
+            counts[1]++;
+        });
+        if (!loaded) {
+            // Try again after the usual sleep rather than spinning on a failing database
+            nextLoad = now.plusMinutes(MAX_SLEEP_MINUTES);
+            return;
+        }
+        nextLoad = now.plusDays(windowDays);
+        System.out.printf("Payment reminders: %d bill(s) due within %d days, %d newly scheduled, %d queued (%.1f ms)%n",
+                counts[0], HORIZON_DAYS + windowDays, counts[1], queue.size(), (System.nanoTime() - start) / 1e6);
+    }
+
+    private void fireDue(LocalDateTime now) {
+        long start = System.nanoTime();
+        List<Integer> billIds = new ArrayList<>();
+        while (!queue.isEmpty() && !queue.peek().fireAt.isAfter(now)) {
+            Reminder reminder = queue.poll();
+            scheduled.remove(reminder.billId);
+            billIds.add(reminder.billId);
+        }
+        if (billIds.isEmpty()) {
+            return;
+        }
+
+        // Re-read the bills: payments made since the load drop their reminders
+        Map<Integer, Bill> bills = DatabaseHandler.getBillsByIds(billIds);
+        if (bills == null) {
+            return;
+        }
+        LocalDate today = now.toLocalDate();
+        List<Notification> reminders = new ArrayList<>();
+        for (int billId : billIds) {
+            Bill bill = bills.get(billId);
+            if (bill == null || bill.getDueDate() == null || "Paid".equals(bill.getStatus())) continue;
+
+            double balance = bill.getAmountDue() - bill.getAmountPaid();
+            if (balance <= 0) continue; // Bill is paid
+
+            LocalDate due = bill.getDueDate().toLocalDate();
+            LocalDate crossing = latestCrossing(due, today);
+            if (crossing != null) {
+                int daysUntilDue = (int) ChronoUnit.DAYS.between(today, due);
+                Notification admin = Notification.paymentDue(billId, bill.getUsername(), balance, daysUntilDue);
+                admin.setDailyDedupeKey(crossing);
+                reminders.add(admin);
+                Notification user = Notification.userPaymentDue(bill.getUserId(), billId, balance, daysUntilDue);
+                user.setDailyDedupeKey(crossing);
+                reminders.add(user);
+            }
+            LocalDate next = crossing != null ? nextCrossing(due, crossing) : due.minusDays(HORIZON_DAYS);
+            add(new Reminder(billId, next.atStartOfDay()));
+        }
+
+        int created = DatabaseHandler.saveNotificationsIfAbsent(reminders);
+        if (created > 0) {
+            System.out.printf("Payment reminders created: %d for %d bill(s) in %.1f ms%n",
+                    created, billIds.size(), (System.nanoTime() - start) / 1e6);
+        }
+    }
+
+    private void add(Reminder reminder) {
+        scheduled.put(reminder.billId, reminder);
+        queue.add(reminder);
+    }
+
+    // Sleeps until the earliest reminder or the next load, whichever comes first
+    private void scheduleWakeUp() {
+        if (executor.isShutdown()) {
+            return;
+        }
+        if (wakeUp != null) {
+            wakeUp.cancel(false);
+        }
+        LocalDateTime next = nextLoad;
+        if (!queue.isEmpty() && queue.peek().fireAt.isBefore(next)) {
+            next = queue.peek().fireAt;
+        }
+        long delay = Math.max(0, Duration.between(LocalDateTime.now(), next).toMillis());
+        wakeUp = executor.schedule(this::run, Math.min(delay, TimeUnit.MINUTES.toMillis(MAX_SLEEP_MINUTES)),
+                TimeUnit.MILLISECONDS);
+    }
+
+    // Last threshold day on or before today, or null while the bill is still outside the horizon
+    static LocalDate latestCrossing(LocalDate due, LocalDate today) {
+        if (!today.isBefore(due)) {
+            return today;
+        }
+        LocalDate latest = null;
+        for (int days : DAYS_BEFORE_DUE) {
+            LocalDate threshold = due.minusDays(days);
+            if (!threshold.isAfter(today)) {
+                latest = threshold;
+            }
+        }
+        return latest;
+    }
+
+    // First threshold day after the given one; overdue bills are reminded daily
+    static LocalDate nextCrossing(LocalDate due, LocalDate after) {
+        if (!after.isBefore(due)) {
+            return after.plusDays(1);
+        }
+        for (int days : DAYS_BEFORE_DUE) {
+            LocalDate threshold = due.minusDays(days);
+            if (threshold.isAfter(after)) {
+                return threshold;
+            }
+        }
+        return due;
+    }
+}
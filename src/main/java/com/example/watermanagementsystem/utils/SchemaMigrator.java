@@ -0,0 +1,145 @@
+package com.example.watermanagementsystem.utils;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Applies numbered schema migrations in order. Each migration runs once, in its own
+ * transaction, and is recorded in the schema_version table together with its description.
+ */
+public class SchemaMigrator {
+
+    // A single schema change; runs inside the migration transaction
+    public interface MigrationStep {
+        void apply(Connection conn) throws SQLException;
+    }
+
+    public static class Migration {
+        private final int version;
+        private final String description;
+        private final MigrationStep step;
+
+        public Migration(int version, String description, MigrationStep step) {
+            this.version = version;
+            this.description = description;
+            this.step = step;
+        }
+
+        public int getVersion() { return version; }
+        public String getDescription() { return description; }
+    }
+
+    private final List<Migration> migrations = new ArrayList<>();
+
+    // Register the next migration; versions must be strictly increasing
+    public SchemaMigrator add(int version, String description, MigrationStep step) {
+        if (!migrations.isEmpty() && version <= getLatestVersion()) {
+            throw new IllegalArgumentException("Migration " + version + " is out of order");
+        }
+        migrations.add(new Migration(version, description, step));
+        return this;
+    }
+
+    public List<Migration> getMigrations() {
+        return Collections.unmodifiableList(migrations);
+    }
+
+    public int getLatestVersion() {
+        return migrations.isEmpty() ? 0 : migrations.get(migrations.size() - 1).getVersion();
+    }
+
+    // Bring the database up to the latest version; returns the number of migrations applied
+    public int migrate(Connection conn) throws SQLException {
+        int current = readVersion(conn);
+        if (current >= getLatestVersion()) {
+            return 0;
+        }
+
+        int applied = 0;
+        boolean autoCommit = conn.getAutoCommit();
+        DateTimeFormatter fmt = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+        try {
+            for (Migration migration : migrations) {
+                if (migration.getVersion() <= current) {
+                    continue;
+                }
+                conn.setAutoCommit(false);
+                try {
+                    // Another process may have migrated while we were waiting for the write lock
+                    if (readVersion(conn) >= migration.getVersion()) {
+                        conn.rollback();
+                        continue;
+                    }
+                    migration.step.apply(conn);
+                    try (PreparedStatement pstmt = conn.prepareStatement(
+                            "INSERT INTO schema_version (version, description, applied_at) VALUES (?, ?, ?)")) {
+                        pstmt.setInt(1, migration.getVersion());
+                        pstmt.setString(2, migration.getDescription());
+                        pstmt.setString(3, LocalDateTime.now().format(fmt));
+                        pstmt.executeUpdate();
+                    }
+                    // Same rule as DatabaseHandler: never conn.commit(), which would begin again at once
+                    ConnectionPool.commit(conn);
+                    applied++;
+                    System.out.println("Database migration " + migration.getVersion() + " applied: " + migration.getDescription());
+                } catch (SQLException e) {
+                    conn.rollback();
+                    throw new SQLException("Migration " + migration.getVersion() + " (" + migration.getDescription() + ") failed: " + e.getMessage(), e);
+                }
+            }
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+        return applied;
+    }
+
+    // Current schema version; creates the bookkeeping table on a database that has never been migrated
+    public static int readVersion(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COALESCE(MAX(version), 0) FROM schema_version")) {
+            return rs.next() ? rs.getInt(1) : 0;
+        } catch (SQLException e) {
+            if (e.getMessage() == null || !e.getMessage().contains("no such table")) {
+                throw e;
+            }
+        }
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE IF NOT EXISTS schema_version (" +
+                    "version INTEGER PRIMARY KEY," +
+                    "description TEXT," +
+                    "applied_at TEXT" +
+                    ")");
+        }
+        return 0;
+    }
+
+    public static boolean columnExists(Connection conn, String table, String column) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA table_info('" + table + "')")) {
+            while (rs.next()) {
+                if (column.equalsIgnoreCase(rs.getString("name"))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // For migrations that must also work on databases created before versioning existed
+    public static void addColumnIfMissing(Connection conn, String table, String column, String definition) throws SQLException {
+        if (!columnExists(conn, table, column)) {
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("ALTER TABLE " + table + " ADD COLUMN " + column + " " + definition);
+            }
+            System.out.println("Database migration: added column '" + column + "' to " + table + " table.");
+        }
+    }
+}
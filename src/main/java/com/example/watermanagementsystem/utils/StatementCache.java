@@ -0,0 +1,219 @@
+package com.example.watermanagementsystem.utils;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LRU cache of prepared statements for one physical connection, keyed by SQL text.
+ * Callers get a wrapper whose close() resets the statement and keeps it for the next caller
+ * instead of finalizing it, so SQLite does not re-parse and re-plan the same SQL.
+ */
+class StatementCache {
+
+    private final Connection physical;
+    private final int maxSize;
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+    private final LinkedHashMap<String, CachedStatement> statements = new LinkedHashMap<>(16, 0.75f, true);
+    // Uncached statements handed out while the cached one for the same SQL was checked out
+    private final List<CachedStatement> oneOffs = new ArrayList<>();
+
+    StatementCache(Connection physical, int maxSize, AtomicLong hits, AtomicLong misses) {
+        this.physical = physical;
+        this.maxSize = maxSize;
+        this.hits = hits;
+        this.misses = misses;
+    }
+
+    // owner is the pooled connection proxy, returned from getConnection() so the physical connection never leaks
+    synchronized PreparedStatement prepare(Connection owner, String sql, int autoGeneratedKeys) throws SQLException {
+        String key = autoGeneratedKeys + ":" + sql;
+        CachedStatement cached = statements.get(key);
+        if (cached != null && !cached.inUse) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+            PreparedStatement ps = physical.prepareStatement(sql, autoGeneratedKeys);
+            if (cached != null) {
+                // Same SQL is already checked out (e.g. nested use); hand out a one-off statement,
+                // wrapped like the rest so it reports the pooled connection and closes for real
+                cached = new CachedStatement(ps);
+                cached.evicted = true;
+                oneOffs.add(cached);
+            } else {
+                cached = new CachedStatement(ps);
+                statements.put(key, cached);
+                evictIfNeeded();
+            }
+        }
+        cached.inUse = true;
+        cached.checkouts++;
+        return cached.wrap(owner);
+    }
+
+    private void evictIfNeeded() {
+        Iterator<Map.Entry<String, CachedStatement>> it = statements.entrySet().iterator();
+        while (statements.size() > maxSize && it.hasNext()) {
+            CachedStatement eldest = it.next().getValue();
+            it.remove();
+            eldest.evicted = true;
+            if (!eldest.inUse) {
+                eldest.closeQuietly();
+            }
+        }
+    }
+
+    // Reset statements a borrower forgot to close, before the connection goes back to the pool
+    synchronized void releaseAll() {
+        for (CachedStatement cached : new ArrayList<>(statements.values())) {
+            if (cached.inUse) {
+                release(cached);
+            }
+        }
+        for (CachedStatement oneOff : new ArrayList<>(oneOffs)) {
+            release(oneOff);
+        }
+    }
+
+    synchronized void closeAll() {
+        for (CachedStatement cached : statements.values()) {
+            cached.closeQuietly();
+        }
+        statements.clear();
+        for (CachedStatement oneOff : oneOffs) {
+            oneOff.closeQuietly();
+        }
+        oneOffs.clear();
+    }
+
+    synchronized int size() {
+        return statements.size();
+    }
+
+    private synchronized void release(CachedStatement cached) {
+        // Open result sets keep a read transaction (and a stale snapshot) alive on the connection
+        for (ResultSet rs : cached.openResults) {
+            try {
+                rs.close();
+            } catch (SQLException ignore) { }
+        }
+        cached.openResults.clear();
+        cached.inUse = false;
+
+        boolean reusable = !cached.evicted;
+        if (reusable) {
+            try {
+                cached.statement.clearParameters();
+                cached.statement.clearBatch();
+            } catch (SQLException e) {
+                reusable = false;
+            }
+        }
+        if (!reusable) {
+            if (!oneOffs.remove(cached)) {
+                statements.values().remove(cached);
+            }
+            cached.closeQuietly();
+        }
+    }
+
+    private class CachedStatement {
+        private final PreparedStatement statement;
+        private final List<ResultSet> openResults = new ArrayList<>();
+        private boolean inUse;
+        private boolean evicted;
+        private long checkouts;
+
+        CachedStatement(PreparedStatement statement) {
+            this.statement = statement;
+        }
+
+        PreparedStatement wrap(Connection owner) {
+            return (PreparedStatement) Proxy.newProxyInstance(
+                    StatementCache.class.getClassLoader(),
+                    new Class<?>[]{PreparedStatement.class},
+                    new Handle(this, checkouts, owner));
+        }
+
+        void closeQuietly() {
+            try {
+                statement.close();
+            } catch (SQLException ignore) { }
+        }
+    }
+
+    // One checkout of a cached statement; close() ends the checkout
+    private class Handle implements InvocationHandler {
+        private final CachedStatement cached;
+        private final long checkout;
+        private final Connection owner;
+        private boolean closed;
+
+        Handle(CachedStatement cached, long checkout, Connection owner) {
+            this.cached = cached;
+            this.checkout = checkout;
+            this.owner = owner;
+        }
+
+        // A handle expires when it is closed or when releaseAll() reclaimed the statement
+        private boolean isExpired() {
+            synchronized (StatementCache.this) {
+                return closed || !cached.inUse || cached.checkouts != checkout;
+            }
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    synchronized (StatementCache.this) {
+                        if (!isExpired()) {
+                            release(cached);
+                        }
+                        closed = true;
+                    }
+                    return null;
+                case "isClosed":
+                    return isExpired();
+                case "getConnection":
+                    return owner;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "CachedStatement[" + cached.statement + "]";
+                default:
+                    break;
+            }
+
+            if (isExpired()) {
+                throw new SQLException("Statement is closed");
+            }
+            Object result;
+            try {
+                result = method.invoke(cached.statement, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+            if (result instanceof ResultSet) {
+                synchronized (StatementCache.this) {
+                    cached.openResults.add((ResultSet) result);
+                }
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,326 @@
+package com.example.watermanagementsystem.utils;
+
+import com.example.watermanagementsystem.controllers.DatabaseHandler;
+
+import java.nio.ByteBuffer;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Online reservoir depletion forecast. Demand is learned as an exponentially weighted average per
+ * hour of the week (168 buckets), updated in O(1) per approval; time-to-empty walks the buckets
+ * forward from the current supply level, which is re-evaluated on every approval and every manual
+ * supply update. Crossing the HIGH or URGENT horizon raises a notification once; a refill that
+ * pushes depletion past the horizon clears the alert. The model is saved to the supply_forecast table every few minutes and at shutdown, so it
+ * survives restarts.
+ */
+public class SupplyForecaster implements DatabaseHandler.ApprovedUsageListener, DatabaseHandler.SupplyLevelListener {
+
+    private static final int HOURS_PER_WEEK = 168;
+    // 1970-01-01T00:00 was a Thursday; shifting by three days puts Monday 00:00 in bucket 0
+    private static final int EPOCH_HOUR_OFFSET = 72;
+    private static final int HORIZON_HOURS = 4 * HOURS_PER_WEEK;
+    private static final int SEED_WEEKS = 8;
+    private static final byte FORMAT_VERSION = 1;
+
+    private static final String NONE = "NONE";
+    private static final String HIGH = "HIGH";
+    private static final String URGENT = "URGENT";
+
+    private static volatile SupplyForecaster instance;
+
+    private final double alpha;
+    private final double highHours;
+    private final double urgentHours;
+    private final double[] hourlyDemand = new double[HOURS_PER_WEEK];
+    private long currentHour;
+    private double currentHourDemand;
+    private String alertLevel = NONE;
+    // Set when the model changes, cleared when it is saved
+    private boolean dirty;
+    private ScheduledExecutorService saver;
+
+    /**
+     * Projected depletion of the reservoir at one point in time.
+     */
+    public static class Forecast {
+        private final double level;
+        private final double hoursToEmpty;
+        private final double demandNext24Hours;
+        private final String alertLevel;
+
+        Forecast(double level, double hoursToEmpty, double demandNext24Hours, String alertLevel) {
+            this.level = level;
+            this.hoursToEmpty = hoursToEmpty;
+            this.demandNext24Hours = demandNext24Hours;
+            this.alertLevel = alertLevel;
+        }
+
+        public double getLevel() { return level; }
+        public double getDemandNext24Hours() { return demandNext24Hours; }
+        public String getAlertLevel() { return alertLevel; }
+
+        // Infinite when the supply outlasts the four-week horizon
+        public double getHoursToEmpty() { return hoursToEmpty; }
+
+        public boolean isEmptyWithinHorizon() {
+            return !Double.isInfinite(hoursToEmpty);
+        }
+
+        public String describe() {
+            if (!isEmptyWithinHorizon()) {
+                return "Not projected to run out within 4 weeks";
+            }
+            long hours = (long) Math.floor(hoursToEmpty);
+            return String.format("Projected empty in %dd %dh (%.0f L expected in next 24h)",
+                    hours / 24, hours % 24, demandNext24Hours);
+        }
+    }
+
+    // Shared forecaster, restored from the database (or seeded from recent requests) on first use
+    public static SupplyForecaster getInstance() {
+        SupplyForecaster forecaster = instance;
+        if (forecaster == null) {
+            synchronized (SupplyForecaster.class) {
+                forecaster = instance;
+                if (forecaster == null) {
+                    forecaster = new SupplyForecaster(
+                            Double.parseDouble(System.getProperty("wms.forecast.alpha", "0.3")),
+                            Integer.getInteger("wms.forecast.highHours", 72),
+                            Integer.getInteger("wms.forecast.urgentHours", 24));
+                    forecaster.restore(LocalDateTime.now());
+                    forecaster.startSaving(Integer.getInteger("wms.forecast.saveMinutes", 5));
+                    DatabaseHandler.addApprovedUsageListener(forecaster);
+                    DatabaseHandler.addSupplyLevelListener(forecaster);
+                    instance = forecaster;
+                }
+            }
+        }
+        return forecaster;
+    }
+
+    // Stops the save timer and writes the latest model; a later getInstance() restores it again
+    public static synchronized void shutdown() {
+        SupplyForecaster forecaster = instance;
+        if (forecaster != null) {
+            DatabaseHandler.removeApprovedUsageListener(forecaster);
+            DatabaseHandler.removeSupplyLevelListener(forecaster);
+            // Let a save in progress finish, so an older snapshot cannot overwrite the final one
+            forecaster.saver.shutdown();
+            try {
+                forecaster.saver.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            forecaster.save();
+            instance = null;
+        }
+    }
+
+    public SupplyForecaster(double alpha, double highHours, double urgentHours) {
+        if (alpha <= 0 || alpha > 1 || urgentHours <= 0 || highHours < urgentHours) {
+            throw new IllegalArgumentException("Invalid forecast settings");
+        }
+        this.alpha = alpha;
+        this.highHours = highHours;
+        this.urgentHours = urgentHours;
+    }
+
+    private synchronized void restore(LocalDateTime now) {
+        byte[] saved = DatabaseHandler.loadSupplyForecast();
+        if (saved != null && fromBytes(saved)) {
+            return;
+        }
+        // No saved model yet: start from the supply drawn per hour of the week over the last few weeks,
+        // or over the whole history if it is shorter
+        LocalDateTime from = now.minusWeeks(SEED_WEEKS);
+        LocalDateTime historyStart = DatabaseHandler.getSupplyHistoryStart();
+        if (historyStart != null && historyStart.isAfter(from)) {
+            from = historyStart;
+        }
+        double[] totals = DatabaseHandler.getHourOfWeekDemand(from);
+        // Average each bucket over the times its hour actually occurred in the seed period
+        int[] occurrences = new int[HOURS_PER_WEEK];
+        for (long hour = epochHour(from); hour <= epochHour(now); hour++) {
+            occurrences[bucketOf(hour)]++;
+        }
+        for (int i = 0; i < HOURS_PER_WEEK; i++) {
+            hourlyDemand[i] = occurrences[i] > 0 ? totals[i] / occurrences[i] : 0;
+        }
+        currentHour = epochHour(now);
+        currentHourDemand = 0;
+        alertLevel = NONE;
+        dirty = true;
+    }
+
+    private void startSaving(long minutes) {
+        saver = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "supply-forecast-save");
+            t.setDaemon(true);
+            return t;
+        });
+        saver.scheduleWithFixedDelay(this::save, 0, minutes, TimeUnit.MINUTES);
+    }
+
+    // Writes the model if it changed since the last save; the database write runs outside the lock
+    private void save() {
+        byte[] model;
+        synchronized (this) {
+            if (!dirty) {
+                return;
+            }
+            model = toBytes();
+            dirty = false;
+        }
+        if (!DatabaseHandler.saveSupplyForecast(model)) {
+            synchronized (this) {
+                dirty = true;
+            }
+        }
+    }
+
+    @Override
+    public void onApproved(int requestId, int userId, double volume, LocalDateTime date, double supplyLevel) {
+        // Supply is drawn when the request is approved, whatever date the request carries
+        LocalDateTime now = LocalDateTime.now();
+        recordDemand(volume, now);
+        evaluate(supplyLevel, now);
+    }
+
+    // A refill can lift the forecast out of an alert, so the new level is evaluated at once
+    @Override
+    public void onSupplyLevelChanged(double level) {
+        evaluate(level, LocalDateTime.now());
+    }
+
+    public synchronized void recordDemand(double volume, LocalDateTime at) {
+        advanceTo(epochHour(at));
+        currentHourDemand += volume;
+        dirty = true;
+    }
+
+    public Forecast evaluate(double level) {
+        return evaluate(level, LocalDateTime.now());
+    }
+
+    // Projects time-to-empty and raises a notification when the alert level worsens; the notification
+    // is written after the lock is released
+    public Forecast evaluate(double level, LocalDateTime now) {
+        Forecast forecast;
+        boolean worse;
+        synchronized (this) {
+            advanceTo(epochHour(now));
+            forecast = project(level);
+
+            String previous = alertLevel;
+            alertLevel = forecast.getAlertLevel();
+            if (!alertLevel.equals(previous)) {
+                dirty = true;
+            }
+            worse = severity(alertLevel) > severity(previous);
+        }
+        if (worse) {
+            NotificationService.notifySupplyForecast(level, forecast.getHoursToEmpty(), forecast.getAlertLevel());
+        }
+        return forecast;
+    }
+
+    // Walks the hour-of-week averages forward until they add up to the current level
+    private Forecast project(double level) {
+        int bucket = bucketOf(currentHour);
+        double remaining = level;
+        double demand24 = 0;
+        double hoursToEmpty = level <= 0 ? 0 : Double.POSITIVE_INFINITY;
+
+        for (int step = 0; step < HORIZON_HOURS; step++) {
+            // The current hour is only expected to draw what it has not drawn already
+            double next = step == 0 ? Math.max(0, hourlyDemand[bucket] - currentHourDemand)
+                    : hourlyDemand[(bucket + step) % HOURS_PER_WEEK];
+            if (step < 24) {
+                demand24 += next;
+            }
+            if (Double.isInfinite(hoursToEmpty) && next > 0 && next >= remaining) {
+                hoursToEmpty = step + remaining / next;
+            }
+            remaining -= next;
+            if (!Double.isInfinite(hoursToEmpty) && step >= 23) {
+                break;
+            }
+        }
+
+        String alert = hoursToEmpty <= urgentHours ? URGENT : hoursToEmpty <= highHours ? HIGH : NONE;
+        return new Forecast(level, hoursToEmpty, demand24, alert);
+    }
+
+    // Folds finished hours into their buckets; hours without approvals count as zero demand
+    private void advanceTo(long hour) {
+        if (hour <= currentHour) {
+            return;
+        }
+        fold(currentHour, currentHourDemand);
+        // Idle hours fold in zeros; whole idle weeks decay every bucket at once, so a long gap stays O(168)
+        long idleHours = hour - currentHour - 1;
+        long idleWeeks = idleHours / HOURS_PER_WEEK;
+        if (idleWeeks > 0) {
+            double decay = Math.pow(1 - alpha, idleWeeks);
+            for (int i = 0; i < HOURS_PER_WEEK; i++) {
+                hourlyDemand[i] *= decay;
+            }
+        }
+        for (long h = currentHour + 1 + idleWeeks * HOURS_PER_WEEK; h < hour; h++) {
+            fold(h, 0);
+        }
+        currentHour = hour;
+        currentHourDemand = 0;
+        dirty = true;
+    }
+
+    private void fold(long hour, double demand) {
+        int bucket = bucketOf(hour);
+        hourlyDemand[bucket] += alpha * (demand - hourlyDemand[bucket]);
+    }
+
+    private static long epochHour(LocalDateTime time) {
+        return Math.floorDiv(time.toEpochSecond(ZoneOffset.UTC), 3600);
+    }
+
+    private static int bucketOf(long epochHour) {
+        return Math.floorMod(epochHour + EPOCH_HOUR_OFFSET, HOURS_PER_WEEK);
+    }
+
+    private static int severity(String alert) {
+        return URGENT.equals(alert) ? 2 : HIGH.equals(alert) ? 1 : 0;
+    }
+
+    // version, current hour, its demand so far, alert level, then the 168 bucket averages
+    private byte[] toBytes() {
+        ByteBuffer buffer = ByteBuffer.allocate(1 + 8 + 8 + 1 + HOURS_PER_WEEK * 8);
+        buffer.put(FORMAT_VERSION);
+        buffer.putLong(currentHour);
+        buffer.putDouble(currentHourDemand);
+        buffer.put((byte) severity(alertLevel));
+        for (double demand : hourlyDemand) {
+            buffer.putDouble(demand);
+        }
+        return buffer.array();
+    }
+
+    private boolean fromBytes(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        if (bytes.length != 1 + 8 + 8 + 1 + HOURS_PER_WEEK * 8 || buffer.get() != FORMAT_VERSION) {
+            System.err.println("Supply forecast: ignoring saved model in an unknown format");
+            return false;
+        }
+        currentHour = buffer.getLong();
+        currentHourDemand = buffer.getDouble();
+        int savedSeverity = buffer.get();
+        alertLevel = savedSeverity == 2 ? URGENT : savedSeverity == 1 ? HIGH : NONE;
+        for (int i = 0; i < HOURS_PER_WEEK; i++) {
+            hourlyDemand[i] = buffer.getDouble();
+        }
+        return true;
+    }
+}
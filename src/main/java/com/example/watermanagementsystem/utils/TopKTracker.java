@@ -0,0 +1,284 @@
+package com.example.watermanagementsystem.utils;
+
+import com.example.watermanagementsystem.controllers.DatabaseHandler;
+import com.example.watermanagementsystem.models.UserUsage;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Running top-K water consumers for the current day, week, month and year. Each period keeps a
+ * user -> usage map and a K-sized min-heap of the leaders; an approval can only move a user up, so
+ * it enters the heap only by beating its smallest entry, and leaderboards are read in O(K). A reversal
+ * is patched into the map, promoting the best user outside the heap if a leader falls below it.
+ */
+public class TopKTracker implements DatabaseHandler.ApprovedUsageListener {
+
+    public enum Period {
+        DAY, WEEK, MONTH, YEAR;
+
+        // First day of the period containing the given day; weeks start on Monday
+        LocalDate start(LocalDate day) {
+            switch (this) {
+                case DAY:
+                    return day;
+                case WEEK:
+                    return day.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+                case MONTH:
+                    return day.withDayOfMonth(1);
+                default:
+                    return day.withDayOfYear(1);
+            }
+        }
+
+        LocalDate next(LocalDate start) {
+            switch (this) {
+                case DAY:
+                    return start.plusDays(1);
+                case WEEK:
+                    return start.plusWeeks(1);
+                case MONTH:
+                    return start.plusMonths(1);
+                default:
+                    return start.plusYears(1);
+            }
+        }
+    }
+
+    // Approved volume and request count of one user within a period
+    private static class Usage {
+        double volume;
+        int count;
+    }
+
+    private class Board {
+        private final LocalDate start;
+        private final LocalDate end;
+        private final Map<Integer, Usage> usage = new HashMap<>();
+        private final PriorityQueue<Integer> leaders = new PriorityQueue<>(
+                Comparator.comparingDouble((Integer userId) -> usage.get(userId).volume).thenComparing(userId -> -userId));
+
+        Board(Period period, LocalDate start) {
+            this.start = start;
+            this.end = period.next(start);
+        }
+
+        boolean contains(LocalDate day) {
+            return !day.isBefore(start) && day.isBefore(end);
+        }
+
+        void add(int userId, double volume, int count) {
+            Usage entry = usage.computeIfAbsent(userId, id -> new Usage());
+            // A leader's key is about to change, so take it out while the heap still agrees with the map
+            boolean leading = leaders.remove(userId);
+            entry.volume += volume;
+            entry.count += count;
+            if (leading || leaders.size() < k) {
+                leaders.add(userId);
+            } else if (leaders.comparator().compare(userId, leaders.peek()) > 0) {
+                leaders.poll();
+                leaders.add(userId);
+            }
+        }
+
+        void subtract(int userId, double volume, int count) {
+            Usage entry = usage.get(userId);
+            if (entry == null) {
+                return;
+            }
+            boolean leading = leaders.remove(userId);
+            entry.volume -= volume;
+            entry.count -= count;
+            if (entry.count <= 0) {
+                usage.remove(userId);
+            } else if (leading) {
+                leaders.add(userId);
+            }
+            if (!leading) {
+                return;
+            }
+            // Everyone else in the heap still beats every outsider, so at most the best outsider moves in
+            Integer best = null;
+            for (int candidate : usage.keySet()) {
+                if (!leaders.contains(candidate)
+                        && (best == null || leaders.comparator().compare(candidate, best) > 0)) {
+                    best = candidate;
+                }
+            }
+            if (best == null) {
+                return;
+            }
+            if (leaders.size() < k) {
+                leaders.add(best);
+            } else if (leaders.comparator().compare(best, leaders.peek()) > 0) {
+                leaders.poll();
+                leaders.add(best);
+            }
+        }
+    }
+
+    private static volatile TopKTracker instance;
+
+    private final int k;
+    private final Map<Period, Board> boards = new EnumMap<>(Period.class);
+    private Map<Integer, String> usernames = new HashMap<>();
+    // Events that arrive while rebuild() reads, replayed on top of it in arrival order; null once rebuilt
+    private List<Runnable> pending;
+    // Request ids the rebuild counted, so a buffered event for a request it already read applies once
+    private Set<Integer> counted;
+
+    // Shared tracker, rebuilt from the database on first use; K is set with -Dwms.analytics.topK
+    public static TopKTracker getInstance() {
+        TopKTracker tracker = instance;
+        if (tracker == null) {
+            synchronized (TopKTracker.class) {
+                tracker = instance;
+                if (tracker == null) {
+                    tracker = new TopKTracker(Integer.getInteger("wms.analytics.topK", 10));
+                    // Subscribe before reading, so approvals committed during the rebuild are buffered, not lost
+                    DatabaseHandler.addApprovedUsageListener(tracker);
+                    tracker.rebuild();
+                    instance = tracker;
+                }
+            }
+        }
+        return tracker;
+    }
+
+    public TopKTracker(int k) {
+        if (k < 1) {
+            throw new IllegalArgumentException("K must be positive");
+        }
+        this.k = k;
+    }
+
+    // Reloads every period of the current calendar from the approved requests of the year. The read runs
+    // without the lock, with events buffered meanwhile; the new boards are swapped in and the buffer replayed.
+    public boolean rebuild() {
+        long start = System.nanoTime();
+        synchronized (this) {
+            if (pending != null) {
+                return false;
+            }
+            pending = new ArrayList<>();
+        }
+        LocalDate today = LocalDate.now();
+        Map<Period, Board> rebuilt = new EnumMap<>(Period.class);
+        for (Period period : Period.values()) {
+            rebuilt.put(period, new Board(period, period.start(today)));
+        }
+        Set<Integer> read = new HashSet<>();
+        boolean ok = DatabaseHandler.forEachApprovedUsageSince(Period.YEAR.start(today), (requestId, userId, volume, date) -> {
+            read.add(requestId);
+            for (Board board : rebuilt.values()) {
+                if (board.contains(date.toLocalDate())) {
+                    board.add(userId, volume, 1);
+                }
+            }
+        });
+        Map<Integer, String> names = ok ? DatabaseHandler.getUsernames() : null;
+
+        int replayed;
+        synchronized (this) {
+            if (ok) {
+                boards.clear();
+                boards.putAll(rebuilt);
+                usernames = names;
+                counted = read;
+            }
+            replayed = pending.size();
+            List<Runnable> events = pending;
+            pending = null;
+            // After a failed read the old boards stay, and the buffered events apply to them
+            events.forEach(Runnable::run);
+            counted = null;
+        }
+        if (ok) {
+            System.out.printf("Top-%d tracker: rebuilt %d period(s) in %.1f ms, %d event(s) replayed%n",
+                    k, rebuilt.size(), (System.nanoTime() - start) / 1e6, replayed);
+        }
+        return ok;
+    }
+
+    @Override
+    public synchronized void onApproved(int requestId, int userId, double volume, LocalDateTime date, double supplyLevel) {
+        if (date == null) {
+            return;
+        }
+        if (pending != null) {
+            pending.add(() -> onApproved(requestId, userId, volume, date, supplyLevel));
+        } else if (counted == null || counted.add(requestId)) {
+            LocalDate day = date.toLocalDate();
+            for (Period period : Period.values()) {
+                Board board = currentBoard(period);
+                if (board.contains(day)) {
+                    board.add(userId, volume, 1);
+                }
+            }
+        }
+    }
+
+    // A reversal patches the user's totals in place instead of reloading the boards
+    @Override
+    public synchronized void onReversed(int requestId, int userId, double volume, LocalDateTime date) {
+        if (date == null) {
+            return;
+        }
+        if (pending != null) {
+            pending.add(() -> onReversed(requestId, userId, volume, date));
+        } else if (counted == null || counted.remove(requestId)) {
+            LocalDate day = date.toLocalDate();
+            for (Period period : Period.values()) {
+                Board board = currentBoard(period);
+                if (board.contains(day)) {
+                    board.subtract(userId, volume, 1);
+                }
+            }
+        }
+    }
+
+    // A new period starts out empty, so rolling over needs no database read
+    private Board currentBoard(Period period) {
+        LocalDate start = period.start(LocalDate.now());
+        Board board = boards.get(period);
+        if (board == null || !board.start.equals(start)) {
+            board = new Board(period, start);
+            boards.put(period, board);
+        }
+        return board;
+    }
+
+    // Leaders of the current period by approved volume, largest first
+    public synchronized List<UserUsage> getTopConsumers(Period period) {
+        Board board = currentBoard(period);
+        List<Integer> leaders = new ArrayList<>(board.leaders);
+        leaders.sort(board.leaders.comparator().reversed());
+
+        List<UserUsage> top = new ArrayList<>();
+        for (int userId : leaders) {
+            Usage usage = board.usage.get(userId);
+            top.add(new UserUsage(userId, getUsername(userId), usage.count, usage.volume));
+        }
+        return top;
+    }
+
+    private String getUsername(int userId) {
+        String username = usernames.get(userId);
+        if (username == null) {
+            usernames = DatabaseHandler.getUsernames();
+            username = usernames.getOrDefault(userId, "Unknown");
+        }
+        return username;
+    }
+}
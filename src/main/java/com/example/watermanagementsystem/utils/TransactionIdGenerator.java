@@ -0,0 +1,65 @@
+package com.example.watermanagementsystem.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Lock-free generator of unique, increasing 64-bit ids laid out as
+ * 41 bits of milliseconds since 2024-01-01 UTC, 10 bits of node id and a 12-bit sequence.
+ * The node id comes from -Dwms.nodeId so several installations can write to one ledger.
+ */
+public class TransactionIdGenerator {
+
+    private static final long EPOCH_MILLIS = 1704067200000L; // 2024-01-01T00:00:00Z
+    private static final int NODE_BITS = 10;
+    private static final int SEQUENCE_BITS = 12;
+    public static final int MAX_NODE_ID = (1 << NODE_BITS) - 1;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+    private static final TransactionIdGenerator DEFAULT = new TransactionIdGenerator(Integer.getInteger("wms.nodeId", 0));
+
+    private final long nodeBits;
+    private final LongSupplier clock;
+    // Last issued (millis << SEQUENCE_BITS | sequence); a single CAS claims the next id
+    private final AtomicLong state = new AtomicLong();
+
+    public TransactionIdGenerator(int nodeId) {
+        this(nodeId, System::currentTimeMillis);
+    }
+
+    // clock returns epoch milliseconds; tests pass a fixed or stepping clock
+    TransactionIdGenerator(int nodeId, LongSupplier clock) {
+        if (nodeId < 0 || nodeId > MAX_NODE_ID) {
+            throw new IllegalArgumentException("Node id must be between 0 and " + MAX_NODE_ID + ": " + nodeId);
+        }
+        this.nodeBits = (long) nodeId << SEQUENCE_BITS;
+        this.clock = clock;
+    }
+
+    public static TransactionIdGenerator getDefault() {
+        return DEFAULT;
+    }
+
+    public long nextId() {
+        while (true) {
+            long now = clock.getAsLong() - EPOCH_MILLIS;
+            long last = state.get();
+            // A new millisecond restarts the sequence. Otherwise take the next sequence number;
+            // when a millisecond's 4096 ids run out, or the clock steps back, this carries into
+            // the following millisecond, so ids stay unique and increasing.
+            long next = now > (last >>> SEQUENCE_BITS) ? now << SEQUENCE_BITS : last + 1;
+            if (state.compareAndSet(last, next)) {
+                return ((next >>> SEQUENCE_BITS) << (NODE_BITS + SEQUENCE_BITS)) | nodeBits | (next & SEQUENCE_MASK);
+            }
+        }
+    }
+
+    // Millisecond timestamp an id was issued at (may run slightly ahead under bursts)
+    public static long timestampOf(long id) {
+        return (id >>> (NODE_BITS + SEQUENCE_BITS)) + EPOCH_MILLIS;
+    }
+
+    public static int nodeIdOf(long id) {
+        return (int) ((id >>> SEQUENCE_BITS) & MAX_NODE_ID);
+    }
+}
@@ -0,0 +1,37 @@
+package com.example.watermanagementsystem.utils;
+
+import com.example.watermanagementsystem.controllers.DatabaseHandler;
+
+import java.util.List;
+
+/**
+ * Command line check of the user_usage_summary table against the requests table.
+ * Usage: UsageSummaryTool verify | rebuild (run from the application directory).
+ */
+public class UsageSummaryTool {
+
+    public static void main(String[] args) {
+        String command = args.length > 0 ? args[0] : "verify";
+        int exitCode = 0;
+        try {
+            switch (command) {
+                case "verify":
+                    List<String> mismatches = DatabaseHandler.verifyUsageSummary();
+                    mismatches.forEach(System.out::println);
+                    System.out.println(mismatches.isEmpty() ? "Usage summary is consistent."
+                            : mismatches.size() + " mismatching user(s); run 'rebuild' to fix.");
+                    exitCode = mismatches.isEmpty() ? 0 : 1;
+                    break;
+                case "rebuild":
+                    exitCode = DatabaseHandler.rebuildUsageSummary() < 0 ? 1 : 0;
+                    break;
+                default:
+                    System.err.println("Usage: UsageSummaryTool verify | rebuild");
+                    exitCode = 2;
+            }
+        } finally {
+            DatabaseHandler.shutdown();
+        }
+        System.exit(exitCode);
+    }
+}
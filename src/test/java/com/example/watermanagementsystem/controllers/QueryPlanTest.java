@@ -0,0 +1,107 @@
+package com.example.watermanagementsystem.controllers;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Pins the query plans of the hot lookups to the secondary indexes created by the migrations.
+ * The schema is built by the real bootstrap against a scratch database and the statements are
+ * the ones DatabaseHandler runs, so a migration that drops an index or a query rewritten so
+ * SQLite can no longer use it fails here.
+ */
+class QueryPlanTest {
+
+    @TempDir
+    static Path dir;
+
+    @BeforeAll
+    static void migrateScratchDatabase() {
+        DatabaseHandler.useDatabaseFile(dir.resolve("water_db.sqlite").toString());
+        try (Connection conn = DatabaseHandler.connect()) {
+            assertNotNull(conn, "bootstrap failed");
+        } catch (SQLException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    @AfterAll
+    static void closePool() {
+        DatabaseHandler.shutdown();
+    }
+
+    @Test
+    void requestsOfUserUseUserDateIndex() throws SQLException {
+        assertUsesIndex(DatabaseHandler.REQUESTS_BY_USER_SQL, "idx_requests_user_date");
+    }
+
+    @Test
+    void approvedRequestsUseStatusDateIndex() throws SQLException {
+        assertUsesIndex(DatabaseHandler.APPROVED_REQUESTS_SQL, "idx_requests_status_date");
+    }
+
+    @Test
+    void unbilledRequestsUsePartialIndex() throws SQLException {
+        assertUsesIndex(DatabaseHandler.MARK_USER_REQUESTS_BILLED_SQL, "idx_requests_unbilled");
+        assertUsesIndex(DatabaseHandler.UNBILLED_REQUESTS_IN_RANGE_SQL, "idx_requests_unbilled");
+        assertUsesIndex(DatabaseHandler.UNBILLED_USER_RANGE_SQL, "idx_requests_unbilled");
+    }
+
+    @Test
+    void billsOfUserUseUserBillingDateIndex() throws SQLException {
+        assertUsesIndex(DatabaseHandler.BILLS_BY_USER_SQL, "idx_bills_user_billing_date");
+    }
+
+    @Test
+    void openBillsUseOpenDueDateIndex() throws SQLException {
+        List<String> plan = explain(DatabaseHandler.BILLS_DUE_SOON_SQL);
+        assertTrue(plan.stream().anyMatch(step -> step.contains("idx_bills_open_due_date")), plan.toString());
+        assertTrue(plan.stream().noneMatch(step -> step.contains("TEMP B-TREE")), "due-soon bills are sorted: " + plan);
+        assertUsesIndex(DatabaseHandler.PENDING_BILLS_COUNT_SQL, "idx_bills_");
+    }
+
+    @Test
+    void paymentsUseUserDateAndIdempotencyIndexes() throws SQLException {
+        assertUsesIndex(DatabaseHandler.PAYMENTS_BY_USER_SQL, "idx_payments_user_date");
+        assertUsesIndex(DatabaseHandler.PAYMENT_BY_IDEMPOTENCY_KEY_SQL, "idx_payments_idempotency_key");
+    }
+
+    @Test
+    void notificationsOfTargetUseTargetIndexes() throws SQLException {
+        assertUsesIndex(DatabaseHandler.NOTIFICATIONS_BY_TARGET_SQL, "idx_notifications_target_created");
+        assertUsesIndex(DatabaseHandler.UNREAD_NOTIFICATIONS_BY_TARGET_SQL, "idx_notifications_target_unread");
+        assertUsesIndex(DatabaseHandler.UNREAD_COUNT_BY_TARGET_SQL, "idx_notifications_target_unread");
+    }
+
+    private static void assertUsesIndex(String sql, String index) throws SQLException {
+        List<String> plan = explain(sql);
+        assertTrue(plan.stream().anyMatch(step -> step.contains("USING") && step.contains(index)),
+                "expected " + index + " for " + sql + " but the plan was " + plan);
+        assertTrue(plan.stream().noneMatch(step -> step.startsWith("SCAN") && !step.contains("USING")),
+                "full table scan in the plan of " + sql + ": " + plan);
+    }
+
+    private static List<String> explain(String sql) throws SQLException {
+        List<String> steps = new ArrayList<>();
+        try (Connection conn = DatabaseHandler.connect();
+             PreparedStatement pstmt = conn.prepareStatement("EXPLAIN QUERY PLAN " + sql);
+             ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) {
+                steps.add(rs.getString("detail"));
+            }
+        }
+        return steps;
+    }
+}
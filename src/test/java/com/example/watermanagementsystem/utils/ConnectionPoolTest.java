@@ -0,0 +1,303 @@
+package com.example.watermanagementsystem.utils;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Multi-threaded stress of ConnectionPool: exhaustion and acquire timeouts, connections returned
+ * after exceptions, the pool staying within its size under contention, and explicit transactions
+ * queueing for the single SQLite writer.
+ */
+class ConnectionPoolTest {
+
+    private static final int POOL_SIZE = 4;
+
+    @TempDir
+    Path dir;
+
+    private ConnectionPool pool;
+
+    @BeforeEach
+    void createPool() throws SQLException {
+        pool = new ConnectionPool("jdbc:sqlite:" + dir.resolve("pool.sqlite"), POOL_SIZE, 200,
+                List.of("PRAGMA journal_mode = WAL", "PRAGMA busy_timeout = 5000"), 16);
+        try (Connection conn = pool.getConnection();
+             Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE counter (id INTEGER PRIMARY KEY, value INTEGER NOT NULL)");
+            stmt.execute("INSERT INTO counter VALUES (1, 0)");
+        }
+    }
+
+    @AfterEach
+    void closePool() {
+        pool.close();
+    }
+
+    @Test
+    void exhaustedPoolTimesOutAndRecovers() throws Exception {
+        List<Connection> held = new ArrayList<>();
+        for (int i = 0; i < POOL_SIZE; i++) {
+            held.add(pool.getConnection());
+        }
+        assertEquals(POOL_SIZE, pool.getStats().getActive());
+
+        long start = System.nanoTime();
+        SQLException timeout = assertThrows(SQLException.class, pool::getConnection);
+        long waitedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(timeout.getMessage().contains("Timed out"), timeout.getMessage());
+        assertTrue(waitedMillis >= 150, "gave up after " + waitedMillis + " ms");
+        assertEquals(1, pool.getStats().getTimeouts());
+        // A timed-out caller must not leak a permit
+        assertEquals(POOL_SIZE, pool.getStats().getActive());
+
+        // A waiter is served as soon as a connection comes back
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            CountDownLatch waiting = new CountDownLatch(1);
+            Future<Boolean> waiter = executor.submit(() -> {
+                waiting.countDown();
+                try (Connection conn = pool.getConnection()) {
+                    return !conn.isClosed();
+                }
+            });
+            waiting.await();
+            Thread.sleep(20);
+            held.remove(0).close();
+            assertTrue(waiter.get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+
+        for (Connection conn : held) {
+            conn.close();
+        }
+        assertEquals(0, pool.getStats().getActive());
+        assertEquals(POOL_SIZE, pool.getStats().getIdle());
+    }
+
+    @Test
+    void connectionsComeBackAfterExceptions() throws SQLException {
+        for (int i = 0; i < POOL_SIZE * 5; i++) {
+            assertThrows(SQLException.class, () -> {
+                try (Connection conn = pool.getConnection();
+                     PreparedStatement ps = conn.prepareStatement("SELECT * FROM missing_table")) {
+                    ps.executeQuery();
+                }
+            });
+            assertThrows(IllegalStateException.class, () -> {
+                try (Connection conn = pool.getConnection()) {
+                    conn.setAutoCommit(false);
+                    try (PreparedStatement ps = conn.prepareStatement("UPDATE counter SET value = value + 1 WHERE id = 1")) {
+                        ps.executeUpdate();
+                    }
+                    throw new IllegalStateException("failed mid-transaction");
+                }
+            });
+        }
+        assertEquals(0, pool.getStats().getActive());
+
+        // Every abandoned transaction was rolled back, and no connection kept autocommit off
+        try (Connection conn = pool.getConnection()) {
+            assertTrue(conn.getAutoCommit());
+            assertEquals(0, readCounter(conn));
+        }
+    }
+
+    @Test
+    void borrowedConnectionIsUnusableAfterClose() throws SQLException {
+        Connection conn = pool.getConnection();
+        conn.close();
+        conn.close(); // A second close must not release a second permit
+        assertTrue(conn.isClosed());
+        assertThrows(SQLException.class, conn::createStatement);
+        assertEquals(0, pool.getStats().getActive());
+        assertEquals(1, pool.getStats().getIdle());
+    }
+
+    @Test
+    void contendedPoolStaysWithinItsSize() throws Exception {
+        ConnectionPool contended = new ConnectionPool("jdbc:sqlite:" + dir.resolve("pool.sqlite"), POOL_SIZE, 10_000,
+                List.of("PRAGMA journal_mode = WAL", "PRAGMA busy_timeout = 5000"), 16);
+        int threads = 16;
+        int rounds = 50;
+        AtomicInteger inUse = new AtomicInteger();
+        AtomicInteger maxInUse = new AtomicInteger();
+        AtomicInteger failures = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> results = new ArrayList<>();
+        try {
+            for (int t = 0; t < threads; t++) {
+                int seed = t;
+                results.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < rounds; i++) {
+                        try (Connection conn = contended.getConnection()) {
+                            maxInUse.accumulateAndGet(inUse.incrementAndGet(), Math::max);
+                            try {
+                                if ((seed + i) % 7 == 0) {
+                                    // Some borrowers fail while holding the connection
+                                    conn.prepareStatement("SELECT nope FROM counter").executeQuery();
+                                } else {
+                                    try (PreparedStatement ps = conn.prepareStatement(
+                                            "UPDATE counter SET value = value + 1 WHERE id = 1")) {
+                                        ps.executeUpdate();
+                                    }
+                                }
+                            } finally {
+                                inUse.decrementAndGet();
+                            }
+                        } catch (SQLException e) {
+                            failures.incrementAndGet();
+                        }
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> result : results) {
+                result.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        ConnectionPool.Stats stats = contended.getStats();
+        int expectedFailures = 0;
+        for (int t = 0; t < threads; t++) {
+            for (int i = 0; i < rounds; i++) {
+                if ((t + i) % 7 == 0) expectedFailures++;
+            }
+        }
+        try {
+            assertTrue(maxInUse.get() <= POOL_SIZE, "max in use " + maxInUse.get());
+            assertTrue(stats.getCreated() <= POOL_SIZE, stats.toString());
+            assertEquals(0, stats.getActive());
+            assertEquals(0, stats.getTimeouts());
+            assertEquals((long) threads * rounds, stats.getAcquired());
+            assertEquals(expectedFailures, failures.get());
+            try (Connection conn = contended.getConnection()) {
+                assertEquals(threads * rounds - expectedFailures, readCounter(conn));
+            }
+        } finally {
+            contended.close();
+        }
+    }
+
+    @Test
+    void concurrentTransactionsQueueInsteadOfFailingBusy() throws Exception {
+        // A busy_timeout far below the total run time: without the queue most writers would give up
+        ConnectionPool writers = new ConnectionPool("jdbc:sqlite:" + dir.resolve("pool.sqlite"), POOL_SIZE, 10_000,
+                List.of("PRAGMA journal_mode = WAL", "PRAGMA busy_timeout = 50"), 16);
+        int threads = 8;
+        int rounds = 50;
+        AtomicInteger failures = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> results = new ArrayList<>();
+        try {
+            for (int t = 0; t < threads; t++) {
+                results.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < rounds; i++) {
+                        try (Connection conn = writers.getConnection()) {
+                            conn.setAutoCommit(false);
+                            try {
+                                // Read, then write what was read: a lost update would show in the total
+                                int value = readCounter(conn);
+                                try (PreparedStatement ps = conn.prepareStatement("UPDATE counter SET value = ? WHERE id = 1")) {
+                                    ps.setInt(1, value + 1);
+                                    ps.executeUpdate();
+                                }
+                                conn.setAutoCommit(true);
+                            } catch (SQLException e) {
+                                conn.rollback();
+                                throw e;
+                            }
+                        } catch (SQLException e) {
+                            failures.incrementAndGet();
+                        }
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> result : results) {
+                result.get(60, TimeUnit.SECONDS);
+            }
+            assertEquals(0, failures.get());
+            try (Connection conn = writers.getConnection()) {
+                assertEquals(threads * rounds, readCounter(conn));
+            }
+        } finally {
+            executor.shutdownNow();
+            writers.close();
+        }
+    }
+
+    @Test
+    void openTransactionHoldsOffTheNextOneUntilReturned() throws Exception {
+        Connection holder = pool.getConnection();
+        holder.setAutoCommit(false);
+        try (PreparedStatement ps = holder.prepareStatement("UPDATE counter SET value = 41 WHERE id = 1")) {
+            ps.executeUpdate();
+        }
+
+        try (Connection other = pool.getConnection()) {
+            SQLException timeout = assertThrows(SQLException.class, () -> other.setAutoCommit(false));
+            assertTrue(timeout.getMessage().contains("Timed out"), timeout.getMessage());
+            assertTrue(other.getAutoCommit());
+            // Autocommit statements do not queue behind the open transaction
+            assertEquals(0, readCounter(other));
+        }
+
+        // Returning the connection rolls its transaction back and frees the queue
+        holder.close();
+        try (Connection next = pool.getConnection()) {
+            next.setAutoCommit(false);
+            assertEquals(0, readCounter(next));
+            next.setAutoCommit(true);
+        }
+    }
+
+    @Test
+    void closedPoolRefusesNewBorrowers() throws SQLException {
+        Connection held = pool.getConnection();
+        pool.close();
+        assertThrows(SQLException.class, pool::getConnection);
+        // A connection borrowed before close() is closed for real when returned
+        assertFalse(held.isClosed());
+        held.close();
+        assertEquals(0, pool.getStats().getIdle());
+    }
+
+    private static int readCounter(Connection conn) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement("SELECT value FROM counter WHERE id = 1");
+             ResultSet rs = ps.executeQuery()) {
+            assertTrue(rs.next());
+            return rs.getInt(1);
+        }
+    }
+}
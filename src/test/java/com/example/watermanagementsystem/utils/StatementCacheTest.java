@@ -0,0 +1,236 @@
+package com.example.watermanagementsystem.utils;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Statement cache behind ConnectionPool: hit rate on repeated SQL, a rough cached-vs-uncached
+ * timing, and the one-off statements handed out when the same SQL is already checked out.
+ */
+class StatementCacheTest {
+
+    private static final String LOOKUP_SQL = "SELECT name FROM items WHERE id = ?";
+    // Enough joins that parsing and planning dominate a single-row lookup
+    private static final String JOIN_SQL = "SELECT a.name, b.name, c.name, d.name FROM items a " +
+            "JOIN items b ON b.id = a.id JOIN items c ON c.id = b.id JOIN items d ON d.id = c.id " +
+            "WHERE a.id = ? AND b.name IS NOT NULL AND c.name LIKE 'item%' ORDER BY d.name";
+
+    @TempDir
+    Path dir;
+
+    private String url;
+    private final List<ConnectionPool> pools = new ArrayList<>();
+
+    @BeforeEach
+    void createTable() throws SQLException {
+        url = "jdbc:sqlite:" + dir.resolve("cache.sqlite");
+        ConnectionPool pool = newPool(1, 0);
+        try (Connection conn = pool.getConnection();
+             Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE items (id INTEGER PRIMARY KEY, name TEXT)");
+            stmt.execute("WITH RECURSIVE n(i) AS (SELECT 1 UNION ALL SELECT i + 1 FROM n WHERE i < 100) " +
+                    "INSERT INTO items SELECT i, 'item' || i FROM n");
+        }
+    }
+
+    @AfterEach
+    void closePools() {
+        pools.forEach(ConnectionPool::close);
+    }
+
+    @Test
+    void repeatedSqlIsServedFromTheCache() throws SQLException {
+        ConnectionPool pool = newPool(1, 16);
+        String[] sqls = {LOOKUP_SQL, JOIN_SQL, "SELECT COUNT(*) FROM items WHERE id > ?"};
+        for (int i = 0; i < 300; i++) {
+            try (Connection conn = pool.getConnection()) {
+                for (String sql : sqls) {
+                    try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                        ps.setInt(1, i % 100 + 1);
+                        try (ResultSet rs = ps.executeQuery()) {
+                            assertTrue(rs.next());
+                        }
+                    }
+                }
+            }
+        }
+
+        ConnectionPool.Stats stats = pool.getStats();
+        assertEquals(sqls.length, stats.getStatementCacheMisses());
+        assertEquals(300L * sqls.length - sqls.length, stats.getStatementCacheHits());
+        assertTrue(stats.getStatementCacheHitRatio() > 0.99, stats.toString());
+    }
+
+    @Test
+    void cachedStatementsAreCheaperThanPreparingEachTime() throws SQLException {
+        ConnectionPool uncached = newPool(1, 0);
+        ConnectionPool cached = newPool(1, 16);
+        int rounds = 2_000;
+        // Warm up both paths before timing
+        runLookups(uncached, rounds);
+        runLookups(cached, rounds);
+
+        long uncachedNanos = runLookups(uncached, rounds);
+        long cachedNanos = runLookups(cached, rounds);
+        System.out.printf("Statement cache: %d lookups uncached %.1f ms, cached %.1f ms (%s)%n",
+                rounds, uncachedNanos / 1e6, cachedNanos / 1e6, cached.getStats());
+
+        assertTrue(cached.getStats().getStatementCacheHitRatio() > 0.99);
+        // Generous bound: the point is that re-planning is skipped, not an exact speed-up
+        assertTrue(cachedNanos < uncachedNanos, "cached " + cachedNanos + " ns vs uncached " + uncachedNanos + " ns");
+    }
+
+    @Test
+    void sameSqlCheckedOutTwiceGetsAWrappedOneOff() throws SQLException {
+        ConnectionPool pool = newPool(1, 16);
+        try (Connection conn = pool.getConnection()) {
+            PreparedStatement outer = conn.prepareStatement(LOOKUP_SQL);
+            PreparedStatement inner = conn.prepareStatement(LOOKUP_SQL);
+            assertNotSame(outer, inner);
+            // Neither statement may expose the physical connection behind the pool
+            assertSame(conn, outer.getConnection());
+            assertSame(conn, inner.getConnection());
+
+            outer.setInt(1, 1);
+            inner.setInt(1, 2);
+            try (ResultSet a = outer.executeQuery(); ResultSet b = inner.executeQuery()) {
+                assertTrue(a.next());
+                assertTrue(b.next());
+                assertEquals("item1", a.getString(1));
+                assertEquals("item2", b.getString(1));
+            }
+
+            inner.close();
+            assertTrue(inner.isClosed());
+            assertThrows(SQLException.class, inner::executeQuery);
+            outer.close();
+
+            // The cached statement is free again; the one-off was not kept
+            long hits = pool.getStats().getStatementCacheHits();
+            try (PreparedStatement again = conn.prepareStatement(LOOKUP_SQL)) {
+                assertSame(conn, again.getConnection());
+            }
+            assertEquals(hits + 1, pool.getStats().getStatementCacheHits());
+        }
+    }
+
+    @Test
+    void unclosedOneOffIsReclaimedWhenTheConnectionReturns() throws SQLException {
+        ConnectionPool pool = newPool(1, 16);
+        PreparedStatement leaked;
+        try (Connection conn = pool.getConnection();
+             PreparedStatement outer = conn.prepareStatement(LOOKUP_SQL)) {
+            leaked = conn.prepareStatement(LOOKUP_SQL);
+            leaked.setInt(1, 1);
+            leaked.executeQuery();
+            assertFalse(leaked.isClosed());
+        }
+        assertTrue(leaked.isClosed());
+
+        // An open result set on the leaked statement would keep a read snapshot; a write must still go through
+        try (Connection conn = pool.getConnection();
+             PreparedStatement update = conn.prepareStatement("UPDATE items SET name = 'renamed' WHERE id = 1")) {
+            assertEquals(1, update.executeUpdate());
+        }
+    }
+
+    @Test
+    void sameSqlReusedConcurrently() throws Exception {
+        ConnectionPool pool = newPool(4, 16);
+        int threads = 8;
+        int rounds = 200;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Integer>> results = new ArrayList<>();
+        try {
+            for (int t = 0; t < threads; t++) {
+                int seed = t;
+                Callable<Integer> task = () -> {
+                    start.await();
+                    int checked = 0;
+                    for (int i = 0; i < rounds; i++) {
+                        int outerId = (seed * rounds + i) % 100 + 1;
+                        int innerId = outerId % 100 + 1;
+                        try (Connection conn = pool.getConnection();
+                             PreparedStatement outer = conn.prepareStatement(LOOKUP_SQL)) {
+                            outer.setInt(1, outerId);
+                            try (ResultSet a = outer.executeQuery()) {
+                                assertTrue(a.next());
+                                // Nested use of the same SQL while the outer result set is still open
+                                try (PreparedStatement inner = conn.prepareStatement(LOOKUP_SQL)) {
+                                    assertSame(conn, inner.getConnection());
+                                    inner.setInt(1, innerId);
+                                    try (ResultSet b = inner.executeQuery()) {
+                                        assertTrue(b.next());
+                                        assertEquals("item" + innerId, b.getString(1));
+                                    }
+                                }
+                                assertEquals("item" + outerId, a.getString(1));
+                            }
+                        }
+                        checked++;
+                    }
+                    return checked;
+                };
+                results.add(executor.submit(task));
+            }
+            start.countDown();
+            for (Future<Integer> result : results) {
+                assertEquals(rounds, result.get(60, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        ConnectionPool.Stats stats = pool.getStats();
+        assertEquals(0, stats.getActive());
+        // Every outer lookup after the first per connection hits; every nested one is a one-off miss
+        assertEquals((long) threads * rounds * 2, stats.getStatementCacheHits() + stats.getStatementCacheMisses());
+        assertTrue(stats.getStatementCacheHits() >= (long) threads * rounds - stats.getCreated(), stats.toString());
+    }
+
+    private ConnectionPool newPool(int size, int statementCacheSize) {
+        ConnectionPool pool = new ConnectionPool(url, size, 5_000, List.of("PRAGMA busy_timeout = 5000"), statementCacheSize);
+        pools.add(pool);
+        return pool;
+    }
+
+    private static long runLookups(ConnectionPool pool, int rounds) throws SQLException {
+        long start = System.nanoTime();
+        try (Connection conn = pool.getConnection()) {
+            for (int i = 0; i < rounds; i++) {
+                try (PreparedStatement ps = conn.prepareStatement(JOIN_SQL)) {
+                    ps.setInt(1, i % 100 + 1);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        assertTrue(rs.next());
+                    }
+                }
+            }
+        }
+        return System.nanoTime() - start;
+    }
+}
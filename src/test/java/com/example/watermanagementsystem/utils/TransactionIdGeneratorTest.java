@@ -0,0 +1,141 @@
+package com.example.watermanagementsystem.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Ids from TransactionIdGenerator must be unique and increasing from any number of threads,
+ * including when a millisecond's sequence runs out and the ids carry into the next one.
+ */
+class TransactionIdGeneratorTest {
+
+    private static final long NOW = 1_760_000_000_000L; // 2025-10-09, well inside the 41-bit range
+    private static final int SEQUENCE_SIZE = 4096;
+
+    @Test
+    void idsFromManyThreadsAreUniqueAndIncreasing() throws Exception {
+        // Real clock: most ids share a millisecond with others
+        assertConcurrentIds(new TransactionIdGenerator(7), 8, 50_000);
+    }
+
+    @Test
+    void idsStayUniqueWhenEveryThreadExhaustsTheSameMillisecond() throws Exception {
+        // Frozen clock: every id past the first 4096 is a carry into a later millisecond
+        assertConcurrentIds(new TransactionIdGenerator(7, () -> NOW), 8, 5 * SEQUENCE_SIZE);
+    }
+
+    @Test
+    void fullSequenceCarriesIntoTheNextMillisecond() {
+        AtomicLong millis = new AtomicLong(NOW);
+        TransactionIdGenerator generator = new TransactionIdGenerator(3, millis::get);
+
+        long previous = -1;
+        for (int i = 0; i < SEQUENCE_SIZE; i++) {
+            long id = generator.nextId();
+            assertTrue(id > previous);
+            assertEquals(NOW, TransactionIdGenerator.timestampOf(id));
+            assertEquals(3, TransactionIdGenerator.nodeIdOf(id));
+            previous = id;
+        }
+
+        // Sequence field is full: the next id borrows the following millisecond
+        long carried = generator.nextId();
+        assertTrue(carried > previous);
+        assertEquals(NOW + 1, TransactionIdGenerator.timestampOf(carried));
+        assertEquals(3, TransactionIdGenerator.nodeIdOf(carried));
+
+        // The clock now reaches the borrowed millisecond; its sequence continues instead of restarting
+        millis.set(NOW + 1);
+        long next = generator.nextId();
+        assertEquals(carried + 1, next);
+        assertEquals(NOW + 1, TransactionIdGenerator.timestampOf(next));
+
+        // Once the clock passes the borrowed millisecond the sequence restarts at zero
+        millis.set(NOW + 2);
+        long fresh = generator.nextId();
+        assertTrue(fresh > next);
+        assertEquals(NOW + 2, TransactionIdGenerator.timestampOf(fresh));
+        assertEquals(0, fresh & (SEQUENCE_SIZE - 1));
+    }
+
+    @Test
+    void clockSteppingBackDoesNotRepeatIds() {
+        AtomicLong millis = new AtomicLong(NOW);
+        TransactionIdGenerator generator = new TransactionIdGenerator(0, millis::get);
+        long before = generator.nextId();
+        millis.set(NOW - 5_000);
+        long after = generator.nextId();
+        assertTrue(after > before);
+        assertEquals(NOW, TransactionIdGenerator.timestampOf(after));
+    }
+
+    @Test
+    void generatorsOnDifferentNodesNeverCollide() {
+        LongSupplier clock = () -> NOW;
+        TransactionIdGenerator a = new TransactionIdGenerator(1, clock);
+        TransactionIdGenerator b = new TransactionIdGenerator(2, clock);
+        Set<Long> ids = new HashSet<>();
+        for (int i = 0; i < 2 * SEQUENCE_SIZE; i++) {
+            assertTrue(ids.add(a.nextId()));
+            assertTrue(ids.add(b.nextId()));
+        }
+    }
+
+    @Test
+    void nodeIdMustFitInItsField() {
+        assertThrows(IllegalArgumentException.class, () -> new TransactionIdGenerator(-1));
+        assertThrows(IllegalArgumentException.class, () -> new TransactionIdGenerator(TransactionIdGenerator.MAX_NODE_ID + 1));
+    }
+
+    private static void assertConcurrentIds(TransactionIdGenerator generator, int threads, int perThread) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<long[]>> results = new ArrayList<>();
+        try {
+            for (int t = 0; t < threads; t++) {
+                results.add(executor.submit(() -> {
+                    start.await();
+                    long[] ids = new long[perThread];
+                    for (int i = 0; i < perThread; i++) {
+                        ids[i] = generator.nextId();
+                    }
+                    return ids;
+                }));
+            }
+            start.countDown();
+
+            Set<Long> all = new HashSet<>(threads * perThread * 2);
+            for (Future<long[]> result : results) {
+                long[] ids = result.get(60, TimeUnit.SECONDS);
+                for (int i = 0; i < ids.length; i++) {
+                    // Each thread sees its own ids strictly increasing
+                    if (i > 0) {
+                        assertTrue(ids[i] > ids[i - 1], "id " + ids[i] + " after " + ids[i - 1]);
+                    }
+                    assertTrue(all.add(ids[i]), "duplicate id " + ids[i]);
+                }
+            }
+            assertEquals(threads * perThread, all.size());
+            // Ids issued afterwards are above every id issued so far
+            long max = all.stream().mapToLong(Long::longValue).max().orElseThrow();
+            assertTrue(generator.nextId() > max);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}